@@ -0,0 +1,70 @@
+package org.tjc.neds.simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mating, which splices the parents' dna and adds a ned to the population. Every mating grows the
+ * population, so each invocation mates a fresh batch of pairs and the population is rebuilt,
+ * outside the measurement, before the next one.
+ *
+ * @author Thomas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MateBenchmark {
+
+    private static final int Pairs = 4096;
+
+    private CounterRng random;
+    private Neds neds;
+    private Population population;
+    private Patch full;
+
+    @Setup
+    public void setUp() {
+        random = new CounterRng(Worlds.Seed);
+        neds = Worlds.create("10x10", 1, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        neds.shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void pair() {
+        full = Worlds.bottomless();
+        population = new Population(Pairs * 3, random);
+        for (int i = 0; i < Pairs * 2; i++) {
+            long dna = random.nextLong(0, i, CounterRng.Purpose.Dna);
+            population.add(dna, dna, i % 2 == 0 ? 'm' : 'f', i & 7, 0, 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Pairs)
+    public int mate() {
+        int born = 0;
+        for (int i = 0; i < Pairs * 2; i += 2) {
+            born += population.mate(i, full, i + 1) >= 0 ? 1 : 0;
+        }
+        return born;
+    }
+}
@@ -0,0 +1,108 @@
+package org.tjc.neds.simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-ned operations of a step, each measured on its own: decoding the next instruction,
+ * eating, working out a move and committing it to the cell index, and regrowing a patch. Each
+ * call goes to the next ned or patch in turn, so the numbers include walking a realistic world
+ * rather than hammering one hot cache line.
+ *
+ * @author Thomas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NedBenchmark {
+
+    private Neds neds;
+    private Ned[] all;
+    private Patch[] patches;
+    private Patch full;
+    private int next;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        neds = Worlds.create("200x200", 20000, 1);
+        all = Worlds.neds(neds);
+        Patch[][] field = neds.getFields();
+        Dimensions d = neds.getDimension();
+        patches = new Patch[d.getWidth() * d.getHeight()];
+        for (int y = 0; y < d.getHeight(); y++) {
+            for (int x = 0; x < d.getWidth(); x++) {
+                patches[y * d.getWidth() + x] = field[x][y];
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        full = Worlds.bottomless();
+    }
+
+    @TearDown
+    public void tearDown() {
+        neds.shutdown();
+    }
+
+    private Ned ned() {
+        Ned ned = all[next];
+        next = next + 1 == all.length ? 0 : next + 1;
+        return ned;
+    }
+
+    @Benchmark
+    public int next() {
+        return ned().next();
+    }
+
+    /**
+     * Eats from a patch that never runs out, so every call takes the path of a ned that finds
+     * enough food.
+     */
+    @Benchmark
+    public boolean eatFrom() {
+        return ned().eatFrom(full);
+    }
+
+    @Benchmark
+    public Coordinate move() {
+        return neds.move(ned(), neds.getDimension());
+    }
+
+    @Benchmark
+    public void moveNed() {
+        Ned ned = ned();
+        neds.moveNed(ned, ned.getCoord());
+    }
+
+    /**
+     * Catches a patch up on its regrowth, one step further each time round the field.
+     */
+    @Benchmark
+    public int replant() {
+        Patch p = patches[next];
+        if (++next == patches.length) {
+            next = 0;
+            step++;
+        }
+        p.replant(step);
+        return p.getFood(step);
+    }
+}
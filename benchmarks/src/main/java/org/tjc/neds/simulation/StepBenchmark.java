@@ -0,0 +1,65 @@
+package org.tjc.neds.simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole {@link Neds#step()}. A world's population changes from step to step, so rather than
+ * timing steps of a world drifting further and further from its start, every iteration rebuilds
+ * the world from the same seed and times the same run of steps from it.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar StepBenchmark -p dimensions=500x500 -p threads=4
+ * </pre>
+ *
+ * @author Thomas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = StepBenchmark.Steps)
+@Measurement(iterations = 10, batchSize = StepBenchmark.Steps)
+@Fork(1)
+public class StepBenchmark {
+
+    static final int Steps = 20;
+
+    @Param({"100x100", "500x500"})
+    public String dimensions;
+
+    @Param({"1000", "50000"})
+    public int population;
+
+    @Param({"1"})
+    public int threads;
+
+    private Neds neds;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        neds = Worlds.create(dimensions, population, threads);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        neds.shutdown();
+    }
+
+    @Benchmark
+    public int step() {
+        neds.step();
+        return neds.getPopulation();
+    }
+}
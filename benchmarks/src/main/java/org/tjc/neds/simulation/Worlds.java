@@ -0,0 +1,45 @@
+package org.tjc.neds.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Builds the worlds the benchmarks run against. Every world comes from a fixed seed, so each
+ * fork and each iteration starts from exactly the same input.
+ *
+ * @author Thomas
+ */
+final class Worlds {
+
+    static final long Seed = 42;
+    static final Range<Integer> FoodRange = new Range<>(0, 50);
+
+    /**
+     * @param dimensions a world size written as {@code WIDTHxHEIGHT}
+     * @return the dimensions
+     */
+    static Dimensions parse(String dimensions) {
+        int x = dimensions.indexOf('x');
+        return new Dimensions(Integer.parseInt(dimensions.substring(0, x)), Integer.parseInt(
+            dimensions.substring(x + 1)));
+    }
+
+    static Neds create(String dimensions, int population, int threads) {
+        return new Neds(parse(dimensions), population, FoodRange, 0, threads, Seed);
+    }
+
+    /**
+     * @return a patch that never runs out of food, so everyone who eats from it gets fed
+     */
+    static Patch bottomless() {
+        return new Patch(new Range<>(0, Integer.MAX_VALUE), Integer.MAX_VALUE, 0);
+    }
+
+    static Ned[] neds(Neds neds) {
+        Ned[] all = neds.getAllNeds().toArray(new Ned[0]);
+        Arrays.sort(all, (a, b) -> Long.compare(a.getId(), b.getId()));
+        return all;
+    }
+
+    private Worlds() {
+    }
+}
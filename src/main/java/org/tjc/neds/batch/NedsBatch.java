@@ -0,0 +1,163 @@
+package org.tjc.neds.batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.management.JMException;
+import org.tjc.neds.simulation.Dimensions;
+import org.tjc.neds.simulation.EventJournal;
+import org.tjc.neds.simulation.Neds;
+import org.tjc.neds.simulation.Partition;
+import org.tjc.neds.simulation.Range;
+import org.tjc.neds.simulation.StepMetrics;
+
+/**
+ * Headless command-line runner. It builds a single world from its arguments, or resumes one from a
+ * snapshot, steps it as fast as it can with no GUI and no listeners attached, and prints the step
+ * rate along with the final births, deaths and population, and how long each phase of the step
+ * took. The world can be checkpointed to a snapshot when the run ends, every birth, death and move
+ * can be recorded in an event journal, and the step metrics can be published over JMX while the
+ * run is going.
+ *
+ * With {@code --partitions} it runs one band of a world split across several processes, which
+ * {@link NedsCluster} starts together. Every band steps for the full number of steps, since a band
+ * that has emptied can still be walked into, and each band keeps its own journal, named after the
+ * journal file with the band's number appended.
+ *
+ * <pre>
+ * java -cp Neds.jar org.tjc.neds.batch.NedsBatch --width 500 --height 500 --population 10000 \
+ *     --food-min 0 --food-max 50 --seed 42 --steps 10000 [--threads 8] [--save world.snap] \
+ *     [--journal events.log] [--jmx name]
+ * java -cp Neds.jar org.tjc.neds.batch.NedsBatch --resume world.snap --steps 10000
+ * java -cp Neds.jar org.tjc.neds.batch.NedsBatch --width 500 --height 500 --population 10000 \
+ *     --food-min 0 --food-max 50 --seed 42 --steps 10000 --partitions 4 --partition 2 \
+ *     [--port 47100]
+ * </pre>
+ *
+ * @author Thomas
+ */
+public class NedsBatch {
+
+    private static final String Usage = "usage: NedsBatch (--width n --height n --population n " +
+        "--food-min n --food-max n [--seed n] [--partitions n --partition n [--port n]] | " +
+        "--resume file) --steps n [--threads n] [--save file] [--journal file] [--jmx name]";
+
+    /**
+     * The port of the first partition of a world split across processes.
+     */
+    static final int DefaultPort = 47100;
+
+    /**
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        Neds neds;
+        int steps;
+        int threads;
+        Path save;
+        Partition partition = null;
+        EventJournal journal = null;
+        try {
+            Options options = Options.parse(args, "steps");
+            steps = options.getInt("steps");
+            threads = options.getInt("threads", 1);
+            save = options.has("save") ? Paths.get(options.get("save", null)) : null;
+            if (options.has("partitions")) {
+                Options.parse(args, "width", "height", "population", "food-min", "food-max",
+                    "seed", "partition");
+                if (options.has("resume") || save != null) {
+                    throw new IllegalArgumentException("a partition can't be saved or resumed");
+                }
+                Dimensions d = new Dimensions(options.getInt("width"), options.getInt("height"));
+                Range<Integer> foodRange = new Range<>(options.getInt("food-min"), options.getInt(
+                    "food-max"));
+                partition = Partition.connect(d, options.getInt("partition"), options.getInt(
+                    "partitions"), options.getInt("port", DefaultPort));
+                neds = new Neds(d, options.getInt("population"), foodRange, threads,
+                    options.getLong("seed", 0), partition);
+            }
+            else if (options.has("resume")) {
+                neds = Neds.restore(Paths.get(options.get("resume", null)), 0, threads);
+            }
+            else {
+                Options.parse(args, "width", "height", "population", "food-min", "food-max");
+                Dimensions d = new Dimensions(options.getInt("width"), options.getInt("height"));
+                Range<Integer> foodRange = new Range<>(options.getInt("food-min"), options.getInt(
+                    "food-max"));
+                neds = new Neds(d, options.getInt("population"), foodRange, 0, threads,
+                    options.getLong("seed", Neds.newSeed()));
+            }
+            if (options.has("journal")) {
+                String file = options.get("journal", null);
+                journal = new EventJournal(Paths.get(partition != null ? file + "." +
+                    partition.getIndex() : file));
+                neds.setJournal(journal);
+            }
+            if (options.has("jmx")) {
+                neds.getMetrics().register(options.get("jmx", null));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(2);
+            return;
+        }
+        catch (IOException | JMException e) {
+            System.err.println("can't start: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            int step = 0;
+            while (step < steps && (partition != null || neds.getPopulation() > 0)) {
+                neds.step();
+                step++;
+            }
+            double elapsed = (System.nanoTime() - start) / 1.0e9;
+
+            System.out.println("world: " + neds.getDimension() + ", seed: " + neds.getSeed() +
+                ", threads: " + threads + ", last step: " + neds.getStep());
+            if (partition != null) {
+                System.out.println("partition: " + partition.getIndex() + " of " +
+                    partition.getCount() + ", rows: " + partition.getTop() + " to " +
+                    (partition.getBottom() - 1));
+            }
+            System.out.printf("steps: %d, elapsed: %.3f s, steps/sec: %.1f%n", step, elapsed,
+                elapsed > 0 ? step / elapsed : 0.0);
+            System.out.println("births: " + neds.getBirths() + ", deaths: " + neds.getDeaths() +
+                ", population: " + neds.getPopulation());
+            StepMetrics metrics = neds.getMetrics();
+            for (StepMetrics.Phase phase : StepMetrics.Phase.values()) {
+                System.out.println(phase + ": " + metrics.getLatency(phase));
+            }
+            System.out.println("lock wait: " + metrics.getLockWait() + "\nlock hold: " +
+                metrics.getLockHold());
+            if (save != null) {
+                neds.save(save);
+                System.out.println("saved snapshot to " + save);
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("i/o error: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (UncheckedIOException e) {
+            System.err.println("i/o error: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    private NedsBatch() {
+    }
+}
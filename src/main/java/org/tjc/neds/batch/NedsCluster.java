@@ -0,0 +1,184 @@
+package org.tjc.neds.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.tjc.neds.simulation.Neds;
+
+/**
+ * Runs a single world split across several processes on this host. One {@link NedsBatch} process
+ * is started for every partition, with the same arguments and the same JVM options as this one,
+ * less any that attach an agent or open a JMX port, since every child would try to take the same
+ * port. Once they have all finished each partition's report is printed under its number, followed
+ * by the births, deaths and population of the whole world. If any partition fails, the others are
+ * stopped.
+ *
+ * A split world is a different model from the one {@link NedsBatch} runs for the same seed: neds
+ * only mate within their band and ids and ordering differ, so the totals don't match a
+ * single-process run, or a run with a different number of partitions. See
+ * {@link org.tjc.neds.simulation.Partition}.
+ *
+ * <pre>
+ * java -cp Neds.jar org.tjc.neds.batch.NedsCluster --partitions 4 [--port 47100] --width 2000 \
+ *     --height 2000 --population 100000 --food-min 0 --food-max 50 [--seed 42] --steps 1000 \
+ *     [--threads 2] [--journal events.log] [--jmx name]
+ * </pre>
+ *
+ * @author Thomas
+ */
+public class NedsCluster {
+
+    private static final String Usage = "usage: NedsCluster --partitions n [--port n] " +
+        "--width n --height n --population n --food-min n --food-max n [--seed n] --steps n " +
+        "[--threads n] [--journal file] [--jmx name]";
+    private static final Pattern Totals = Pattern.compile(
+        "births: (\\d+), deaths: (\\d+), population: (\\d+)");
+    private static final Pattern Unshared = Pattern.compile(
+        "-agentlib:.*|-agentpath:.*|-javaagent:.*|-Xrunjdwp:.*|-Xdebug|" +
+        "-Dcom\\.sun\\.management\\.jmxremote.*|-XX:\\+?StartFlightRecording.*");
+
+    /**
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int partitions;
+        long seed;
+        try {
+            Options options = Options.parse(args, "partitions", "width", "height", "population",
+                "food-min", "food-max", "steps");
+            if (options.has("partition") || options.has("resume") || options.has("save")) {
+                throw new IllegalArgumentException("--partition, --resume and --save can't be " +
+                    "used with --partitions");
+            }
+            partitions = options.getInt("partitions");
+            seed = options.getLong("seed", Neds.newSeed());
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(2);
+            return;
+        }
+
+        List<Process> processes = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < partitions; i++) {
+                List<String> command = new ArrayList<>();
+                command.add(java());
+                command.addAll(jvmOptions());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(NedsBatch.class.getName());
+                command.addAll(Arrays.asList(args));
+                command.addAll(Arrays.asList("--seed", Long.toString(seed), "--partition",
+                    Integer.toString(i)));
+                Path output = Files.createTempFile("neds-partition-" + i + "-", ".out");
+                outputs.add(output);
+                processes.add(new ProcessBuilder(command).redirectErrorStream(true).
+                    redirectOutput(output.toFile()).start());
+            }
+            boolean failed = waitFor(processes);
+
+            long births = 0;
+            long deaths = 0;
+            long population = 0;
+            for (int i = 0; i < partitions; i++) {
+                System.out.println("partition " + i + ":");
+                for (String line : Files.readAllLines(outputs.get(i), StandardCharsets.UTF_8)) {
+                    System.out.println("    " + line);
+                    Matcher m = Totals.matcher(line);
+                    if (m.matches()) {
+                        births += Long.parseLong(m.group(1));
+                        deaths += Long.parseLong(m.group(2));
+                        population += Long.parseLong(m.group(3));
+                    }
+                }
+            }
+            if (failed) {
+                System.err.println("a partition failed");
+                System.exit(1);
+            }
+            System.out.println("world: seed: " + seed + ", partitions: " + partitions);
+            System.out.println("note: mating is confined to each partition and ids and ordering " +
+                "differ, so these totals are not comparable with a single-process run of the " +
+                "same seed");
+            System.out.println("births: " + births + ", deaths: " + deaths + ", population: " +
+                population);
+        }
+        catch (IOException e) {
+            System.err.println("i/o error: " + e.getMessage());
+            processes.forEach(Process::destroy);
+            System.exit(1);
+        }
+        catch (InterruptedException e) {
+            processes.forEach(Process::destroy);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (Path output : outputs) {
+                output.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Waits for every process to end, stopping them all as soon as one fails.
+     *
+     * @return true if any process failed
+     */
+    private static boolean waitFor(List<Process> processes) throws InterruptedException {
+        boolean failed = false;
+        boolean running = true;
+        while (running && !failed) {
+            running = false;
+            for (Process p : processes) {
+                if (p.isAlive()) {
+                    running = true;
+                }
+                else if (p.exitValue() != 0) {
+                    failed = true;
+                }
+            }
+            if (running && !failed) {
+                Thread.sleep(100);
+            }
+        }
+        if (failed) {
+            processes.forEach(Process::destroy);
+        }
+        for (Process p : processes) {
+            p.waitFor();
+        }
+        return failed;
+    }
+
+    /**
+     * @return this JVM's options, less those that can't be shared by several processes
+     */
+    private static List<String> jvmOptions() {
+        List<String> options = new ArrayList<>();
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!Unshared.matcher(option).matches()) {
+                options.add(option);
+            }
+        }
+        return options;
+    }
+
+    private static String java() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    private NedsCluster() {
+    }
+}
@@ -0,0 +1,192 @@
+package org.tjc.neds.batch;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tjc.neds.simulation.Dimensions;
+import org.tjc.neds.simulation.Neds;
+import org.tjc.neds.simulation.Range;
+
+/**
+ * Parameter-sweep runner. Every combination of the given world sizes, populations and food ranges
+ * is a configuration, and each configuration is run as a number of replicates that differ only in
+ * their seed. All runs share one bounded thread pool, each world drawing only from its own seed,
+ * and report their population, births and deaths after every step into per-configuration running
+ * moments. The mean and variance of each per step are written to a single CSV file when the sweep
+ * is done.
+ *
+ * <pre>
+ * java -cp Neds.jar org.tjc.neds.batch.NedsEnsemble --sizes 100x100,200x200 \
+ *     --populations 1000,5000 --food 0:50,0:100 --replicates 32 --seed 42 --steps 2000 \
+ *     --threads 16 --out sweep.csv
+ * </pre>
+ *
+ * Replicate r of every configuration is seeded with seed + r.
+ *
+ * @author Thomas
+ */
+public class NedsEnsemble {
+
+    private static final String Usage = "usage: NedsEnsemble --sizes WxH[,WxH...] " +
+        "--populations n[,n...] --food LOW:HIGH[,LOW:HIGH...] --replicates n --steps n " +
+        "--out file [--seed n] [--threads n]";
+
+    /**
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        List<Configuration> configurations = new ArrayList<>();
+        int replicates;
+        int steps;
+        int threads;
+        long seed;
+        Path out;
+        try {
+            Options options = Options.parse(args, "sizes", "populations", "food", "replicates",
+                "steps", "out");
+            for (Dimensions d : options.getDimensions("sizes")) {
+                for (int population : options.getInts("populations")) {
+                    for (Range<Integer> foodRange : options.getRanges("food")) {
+                        configurations.add(new Configuration(d, population, foodRange,
+                            options.getInt("steps")));
+                    }
+                }
+            }
+            replicates = options.getInt("replicates");
+            steps = options.getInt("steps");
+            threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+            seed = options.getLong("seed", Neds.newSeed());
+            out = Paths.get(options.get("out", null));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(2);
+            return;
+        }
+
+        System.out.println("configurations: " + configurations.size() + ", replicates: " +
+            replicates + ", steps: " + steps + ", seed: " + seed + ", threads: " + threads);
+        long start = System.nanoTime();
+        try {
+            run(configurations, replicates, seed, threads);
+            write(out, configurations);
+        }
+        catch (IOException | ExecutionException e) {
+            System.err.println("sweep failed: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        System.out.printf("%d runs in %.3f s, results in %s%n", configurations.size() * replicates,
+            (System.nanoTime() - start) / 1.0e9, out);
+    }
+
+    static void run(List<Configuration> configurations, int replicates, long seed, int threads)
+        throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            configurations.stream().
+                forEach((c) -> {
+                    for (int r = 0; r < replicates; r++) {
+                        long replicateSeed = seed + r;
+                        runs.add(pool.submit(() -> {
+                            c.run(replicateSeed);
+                        }));
+                    }
+                });
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static void write(Path out, List<Configuration> configurations) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            w.println("width,height,population,food_low,food_high,step,replicates," +
+                "population_mean,population_variance,births_mean,births_variance," +
+                "deaths_mean,deaths_variance");
+            for (Configuration c : configurations) {
+                String key = c.dimensions.getWidth() + "," + c.dimensions.getHeight() + "," +
+                    c.initialPopulation + "," + c.foodRange.getLow() + "," + c.foodRange.getHigh();
+                for (int step = 0; step < c.steps; step++) {
+                    w.println(key + "," + (step + 1) + "," + c.population.getCount(step) + "," +
+                        c.population.getMean(step) + "," + c.population.getVariance(step) + "," +
+                        c.births.getMean(step) + "," + c.births.getVariance(step) + "," +
+                        c.deaths.getMean(step) + "," + c.deaths.getVariance(step));
+                }
+            }
+        }
+    }
+
+    /**
+     * One point of the sweep and the moments its replicates report into.
+     */
+    static final class Configuration {
+
+        final Dimensions dimensions;
+        final int initialPopulation;
+        final Range<Integer> foodRange;
+        final int steps;
+        final StepMoments population;
+        final StepMoments births;
+        final StepMoments deaths;
+
+        Configuration(Dimensions dimensions, int initialPopulation, Range<Integer> foodRange,
+            int steps) {
+            this.dimensions = dimensions;
+            this.initialPopulation = initialPopulation;
+            this.foodRange = foodRange;
+            this.steps = steps;
+            this.population = new StepMoments(steps);
+            this.births = new StepMoments(steps);
+            this.deaths = new StepMoments(steps);
+        }
+
+        /**
+         * Runs one replicate. A world that dies out keeps reporting an empty population until
+         * the last step, so that every step averages over every replicate.
+         */
+        void run(long seed) {
+            Neds neds = new Neds(dimensions, initialPopulation, foodRange, 0, 1, seed);
+            try {
+                int lastBirths = 0;
+                int lastDeaths = 0;
+                for (int step = 0; step < steps; step++) {
+                    if (neds.getPopulation() > 0) {
+                        neds.step();
+                    }
+                    int b = neds.getBirths();
+                    int d = neds.getDeaths();
+                    population.add(step, neds.getPopulation());
+                    births.add(step, b - lastBirths);
+                    deaths.add(step, d - lastDeaths);
+                    lastBirths = b;
+                    lastDeaths = d;
+                }
+            }
+            finally {
+                neds.shutdown();
+            }
+        }
+    }
+
+    private NedsEnsemble() {
+    }
+}
@@ -0,0 +1,128 @@
+package org.tjc.neds.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.tjc.neds.simulation.Dimensions;
+import org.tjc.neds.simulation.Range;
+
+/**
+ * Command-line options of the form {@code --name value}. Malformed or missing options are reported
+ * with an IllegalArgumentException whose message is fit to show the user.
+ *
+ * @author Thomas
+ */
+class Options {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    static Options parse(String[] args, String... required) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("bad argument: " + args[i]);
+            }
+            options.values.put(args[i].substring(2), args[++i]);
+        }
+        for (String name : required) {
+            if (!options.has(name)) {
+                throw new IllegalArgumentException("missing --" + name);
+            }
+        }
+        return options;
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name) {
+        return toInt(name, values.get(name));
+    }
+
+    int getInt(String name, int defaultValue) {
+        return has(name) ? getInt(name) : defaultValue;
+    }
+
+    long getLong(String name, long defaultValue) {
+        return has(name) ? toLong(name, values.get(name)) : defaultValue;
+    }
+
+    /**
+     * @param name
+     * @return the comma separated values of the option
+     */
+    List<String> getList(String name) {
+        return Arrays.asList(values.get(name).split(","));
+    }
+
+    List<Integer> getInts(String name) {
+        List<Integer> ints = new ArrayList<>();
+        getList(name).stream().
+            forEach((v) -> {
+                ints.add(toInt(name, v));
+            });
+        return ints;
+    }
+
+    /**
+     * @param name
+     * @return world sizes written as {@code WIDTHxHEIGHT}
+     */
+    List<Dimensions> getDimensions(String name) {
+        List<Dimensions> dimensions = new ArrayList<>();
+        getList(name).stream().
+            forEach((v) -> {
+                String[] wh = v.split("x");
+                if (wh.length != 2) {
+                    throw new IllegalArgumentException("--" + name + " is not WIDTHxHEIGHT: " + v);
+                }
+                dimensions.add(new Dimensions(toInt(name, wh[0]), toInt(name, wh[1])));
+            });
+        return dimensions;
+    }
+
+    /**
+     * @param name
+     * @return food ranges written as {@code LOW:HIGH}
+     */
+    List<Range<Integer>> getRanges(String name) {
+        List<Range<Integer>> ranges = new ArrayList<>();
+        getList(name).stream().
+            forEach((v) -> {
+                String[] lh = v.split(":");
+                if (lh.length != 2) {
+                    throw new IllegalArgumentException("--" + name + " is not LOW:HIGH: " + v);
+                }
+                ranges.add(new Range<>(toInt(name, lh[0]), toInt(name, lh[1])));
+            });
+        return ranges;
+    }
+
+    private static int toInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+        }
+    }
+
+    private static long toLong(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+        }
+    }
+
+    private Options() {
+    }
+}
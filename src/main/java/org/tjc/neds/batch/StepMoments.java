@@ -0,0 +1,55 @@
+package org.tjc.neds.batch;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running per-step moments of one count, such as the population, across the replicates of an
+ * ensemble. Only the number of samples, their sum and their sum of squares are kept for each step,
+ * so no replicate's history is ever stored. The sums are exact integers, which makes the mean and
+ * variance independent of the order in which replicates report.
+ *
+ * @author Thomas
+ */
+class StepMoments {
+
+    private final AtomicLongArray count;
+    private final AtomicLongArray sum;
+    private final AtomicLongArray sumOfSquares;
+
+    StepMoments(int steps) {
+        this.count = new AtomicLongArray(steps);
+        this.sum = new AtomicLongArray(steps);
+        this.sumOfSquares = new AtomicLongArray(steps);
+    }
+
+    void add(int step, long value) {
+        count.incrementAndGet(step);
+        sum.addAndGet(step, value);
+        sumOfSquares.addAndGet(step, value * value);
+    }
+
+    long getCount(int step) {
+        return count.get(step);
+    }
+
+    double getMean(int step) {
+        long n = count.get(step);
+        return n == 0 ? 0.0 : sum.get(step) / (double) n;
+    }
+
+    /**
+     * @param step
+     * @return the sample variance, or 0 with fewer than two samples
+     */
+    double getVariance(int step) {
+        long n = count.get(step);
+        if (n < 2) {
+            return 0.0;
+        }
+        BigInteger s = BigInteger.valueOf(sum.get(step));
+        BigInteger numerator = BigInteger.valueOf(n).multiply(BigInteger.valueOf(sumOfSquares.
+            get(step))).subtract(s.multiply(s));
+        return numerator.doubleValue() / ((double) n * (n - 1));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2005, Thomas J. Clancy
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of 
+ * this software and associated documentation files (the "Software"), to deal in 
+ * the Software without restriction, including without limitation the rights to use, 
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the 
+ * Software, and to permit persons to whom the Software is furnished to do so, 
+ * subject to the following conditions:
+ * 
+ * 	1. 	The above copyright notice and this permission notice shall be included in 
+ * 		all	copies or substantial portions of the Software. 
+ * 
+ * 	2.	Neither the name of the organization nor the names of its contributors may 
+ * 		be used to endorse or promote products derived from this software without 
+ * 		specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE 
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *  
+ */
+package org.tjc.neds.gui;
+
+import java.util.Arrays;
+import org.tjc.neds.simulation.WorldSnapshot;
+
+/**
+ * The food and neds of the field summed over blocks of cells, at every size of block from 2 by 2
+ * up to one block holding the whole field, each level halving the one below it in both directions.
+ * It lets a field too big to show cell by cell be drawn a block at a time at whatever level gives
+ * about one block to a pixel.
+ *
+ * Level 0, the cells themselves, isn't kept: it is read from the snapshot, which already holds it.
+ * When cells change only the 2 by 2 blocks holding them are summed afresh, and the difference is
+ * carried up to the blocks above, so keeping up with a step costs in proportion to the cells it
+ * changed rather than to the size of the field. The one exception is counting the neds into the
+ * blocks, which is a single pass over the neds and far cheaper than finding each changed cell's
+ * neds in the snapshot. Food is summed in longs, since a block of a large enough field holds more
+ * than an int can.
+ *
+ * @author Thomas
+ */
+final class FieldPyramid {
+
+    private final int[] widths;
+    private final int[] heights;
+    private final long[][] food;
+    private final int[][] neds;
+    private final int[] counted;
+
+    /**
+     * @param cols the width of the field in cells
+     * @param rows the height of the field in cells
+     */
+    FieldPyramid(int cols, int rows) {
+        int levels = 1;
+        while ((cols - 1) >> levels > 0 || (rows - 1) >> levels > 0) {
+            levels++;
+        }
+        widths = new int[levels + 1];
+        heights = new int[levels + 1];
+        food = new long[levels + 1][];
+        neds = new int[levels + 1][];
+        widths[0] = cols;
+        heights[0] = rows;
+        for (int level = 1; level <= levels; level++) {
+            widths[level] = (widths[level - 1] + 1) / 2;
+            heights[level] = (heights[level - 1] + 1) / 2;
+            food[level] = new long[widths[level] * heights[level]];
+            neds[level] = new int[food[level].length];
+        }
+        counted = new int[food[1].length];
+    }
+
+    /**
+     * @return the coarsest level, whose one block holds the whole field
+     */
+    int top() {
+        return widths.length - 1;
+    }
+
+    int getWidth(int level) {
+        return widths[level];
+    }
+
+    int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * @param level
+     * @param block the block at x, y being y * width + x, the width being the level's
+     * @return the number of cells in the block, which is fewer along the right and bottom edges
+     * when the field isn't a power of 2 across
+     */
+    int cells(int level, int block) {
+        int x = block % widths[level];
+        int y = block / widths[level];
+        int w = Math.min(widths[0], (x + 1) << level) - (x << level);
+        int h = Math.min(heights[0], (y + 1) << level) - (y << level);
+        return w * h;
+    }
+
+    long getFood(WorldSnapshot world, int level, int block) {
+        return level == 0 ? world.getFood(block) : food[level][block];
+    }
+
+    int getNeds(WorldSnapshot world, int level, int block) {
+        return level == 0 ? world.getNedCount(block) : neds[level][block];
+    }
+
+    /**
+     * Counts the neds in every block of level 1 of a snapshot, in one pass over its neds, ready
+     * for the blocks to be updated from it.
+     *
+     * @param world
+     */
+    void count(WorldSnapshot world) {
+        Arrays.fill(counted, 0);
+        for (int cell : world.getNedCells()) {
+            counted[blockOf(1, cell)]++;
+        }
+    }
+
+    /**
+     * Sums every level afresh from a snapshot.
+     *
+     * @param world
+     */
+    void rebuild(WorldSnapshot world) {
+        count(world);
+        long[] f = food[1];
+        Arrays.fill(f, 0);
+        System.arraycopy(counted, 0, neds[1], 0, counted.length);
+        int cols = widths[0];
+        for (int cell = 0; cell < cols * heights[0]; cell++) {
+            f[blockOf(1, cell)] += world.getFood(cell);
+        }
+        for (int level = 2; level <= top(); level++) {
+            Arrays.fill(food[level], 0);
+            Arrays.fill(neds[level], 0);
+            int below = widths[level - 1];
+            for (int block = 0; block < food[level - 1].length; block++) {
+                int up = parent(level, block / below, block % below);
+                food[level][up] += food[level - 1][block];
+                neds[level][up] += neds[level - 1][block];
+            }
+        }
+    }
+
+    /**
+     * Sums a 2 by 2 block afresh and carries any difference up to the top. The neds must have
+     * been counted in the same snapshot first.
+     *
+     * @param world
+     * @param block a block of level 1
+     * @return whether the sums changed
+     */
+    boolean update(WorldSnapshot world, int block) {
+        int cols = widths[0];
+        int x = block % widths[1] * 2;
+        int y = block / widths[1] * 2;
+        int right = Math.min(x + 2, cols);
+        long f = 0;
+        for (int cy = y; cy < Math.min(y + 2, heights[0]); cy++) {
+            for (int cx = x; cx < right; cx++) {
+                f += world.getFood(cy * cols + cx);
+            }
+        }
+        int n = counted[block];
+        long df = f - food[1][block];
+        int dn = n - neds[1][block];
+        if (df == 0 && dn == 0) {
+            return false;
+        }
+        food[1][block] = f;
+        neds[1][block] = n;
+        for (int level = 2; level <= top(); level++) {
+            int up = parent(level, y >> (level - 1), x >> (level - 1));
+            food[level][up] += df;
+            neds[level][up] += dn;
+        }
+        return true;
+    }
+
+    /**
+     * @return the block at a level that holds a cell
+     */
+    int blockOf(int level, int cell) {
+        int cols = widths[0];
+        return (cell / cols >> level) * widths[level] + (cell % cols >> level);
+    }
+
+    /**
+     * @param level a level from 1 up
+     * @param block a block of level 1
+     * @return the block at the level that holds it
+     */
+    int ancestor(int level, int block) {
+        int shift = level - 1;
+        return (block / widths[1] >> shift) * widths[level] + (block % widths[1] >> shift);
+    }
+
+    /**
+     * @return the block at a level that holds the block at x, y of the level below
+     */
+    private int parent(int level, int y, int x) {
+        return (y >> 1) * widths[level] + (x >> 1);
+    }
+}
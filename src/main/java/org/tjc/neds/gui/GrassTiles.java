@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2005, Thomas J. Clancy
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of 
+ * this software and associated documentation files (the "Software"), to deal in 
+ * the Software without restriction, including without limitation the rights to use, 
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the 
+ * Software, and to permit persons to whom the Software is furnished to do so, 
+ * subject to the following conditions:
+ * 
+ * 	1. 	The above copyright notice and this permission notice shall be included in 
+ * 		all	copies or substantial portions of the Software. 
+ * 
+ * 	2.	Neither the name of the organization nor the names of its contributors may 
+ * 		be used to endorse or promote products derived from this software without 
+ * 		specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE 
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *  
+ */
+package org.tjc.neds.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import org.tjc.neds.simulation.Dimensions;
+
+/**
+ * Grass drawn ahead of time for a patch of one size, a tile for every level of food a patch can
+ * show, so that painting a patch is a single copy of an image. A tile is mottled by dividing it
+ * into rectangles of slightly different shades; the shades come from a random sequence of the
+ * tile's own, seeded with its level, so a tile looks the same every time it is made and making it
+ * takes nothing from the simulation's random numbers.
+ *
+ * @author Thomas
+ */
+final class GrassTiles {
+
+    /**
+     * How many levels of food are told apart, from an empty patch to a full one.
+     */
+    static final int Levels = 21;
+    /**
+     * The greenest a patch gets, as the alpha of green over the black field.
+     */
+    private static final int MaxAlpha = 200;
+    /**
+     * How far a division's shade may stray from its tile's.
+     */
+    private static final int Mottle = 10;
+
+    private final Dimensions size;
+    private final BufferedImage[] tiles = new BufferedImage[Levels];
+
+    GrassTiles(Dimensions size) {
+        this(size, new Dimensions(1, 1));
+    }
+
+    /**
+     * @param size the size of a patch
+     * @param divisions how many rectangles across and down a tile is mottled in
+     */
+    GrassTiles(Dimensions size, Dimensions divisions) {
+        this.size = size;
+        for (int level = 0; level < Levels; level++) {
+            tiles[level] = render(level, divisions);
+        }
+    }
+
+    Dimensions getSize() {
+        return size;
+    }
+
+    /**
+     * @param percent the food left on a patch, as a percentage of the most it can hold
+     * @return the tile for the nearest level
+     */
+    BufferedImage get(double percent) {
+        double p = Math.max(0.0, Math.min(100.0, percent));
+        return tiles[(int) Math.round(p * (Levels - 1) / 100.0)];
+    }
+
+    private BufferedImage render(int level, Dimensions divisions) {
+        int w = Math.max(size.getWidth(), 1);
+        int h = Math.max(size.getHeight(), 1);
+        BufferedImage tile = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int alpha = Math.max(level * MaxAlpha / (Levels - 1), 1);
+        SplittableRandom random = new SplittableRandom(level);
+        Graphics2D g = tile.createGraphics();
+        try {
+            int cols = divisions.getWidth();
+            int rows = divisions.getHeight();
+            for (int row = 0; row < rows; row++) {
+                int top = row * h / rows;
+                int bottom = (row + 1) * h / rows;
+                for (int col = 0; col < cols; col++) {
+                    int left = col * w / cols;
+                    int right = (col + 1) * w / cols;
+                    int a = alpha;
+                    if (level < Levels - 1) {
+                        a += random.nextInt(2 * Mottle + 1) - Mottle;
+                        a = Math.max(1, Math.min(MaxAlpha, a));
+                    }
+                    g.setColor(new Color(0, a, 0));
+                    g.fillRect(left, top, right - left, bottom - top);
+                }
+            }
+        }
+        finally {
+            g.dispose();
+        }
+        return tile;
+    }
+}
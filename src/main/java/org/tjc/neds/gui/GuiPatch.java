@@ -28,18 +28,10 @@ package org.tjc.neds.gui;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.tjc.neds.simulation.Coordinate;
 import org.tjc.neds.simulation.Dimensions;
-import org.tjc.neds.simulation.Neds;
-import org.tjc.neds.simulation.Patch;
-import org.tjc.neds.simulation.Rng;
+import org.tjc.neds.simulation.WorldSnapshot;
 
 /**
  *
@@ -48,34 +40,34 @@ import org.tjc.neds.simulation.Rng;
 public class GuiPatch {
 
     private static final long serialVersionUID = 5697856423431538249L;
-    private static final Logger log = LoggerFactory.getLogger(GuiPatch.class);
-    private Patch patch = null;
     private Coordinate upperLeft;
     private Coordinate patchCoord;
     private Dimensions size;
-    private Dimensions divisionDimensions = new Dimensions(1, 1);
-    private Color grass = Color.green;
-    private List<Rectangle> divisions;
-    private Neds neds;
+    private final GrassTiles grass;
 
-    public GuiPatch(Neds neds, Patch patch, Coordinate ul, Coordinate patchCoord, Dimensions size) {
-        this.upperLeft = ul;
-        this.patchCoord = patchCoord;
-        this.size = size;
-        this.patch = patch;
-        this.neds = neds;
-        this.initializeDivisions();
+    public GuiPatch(Coordinate ul, Coordinate patchCoord, Dimensions size) {
+        this(ul, patchCoord, new GrassTiles(size));
     }
 
-    public GuiPatch(Neds neds, Patch patch, Coordinate ul, Coordinate patchCoord, Dimensions size,
+    public GuiPatch(Coordinate ul, Coordinate patchCoord, Dimensions size,
         Dimensions divisionDimensions) {
-        this(neds, patch, ul, patchCoord, size);
-        this.divisionDimensions = divisionDimensions;
+        this(ul, patchCoord, new GrassTiles(size, divisionDimensions));
     }
 
-    public void paint(Graphics2D g) {
-        paintPatch(g);
-        //paintStats(g);
+    /**
+     * @param grass tiles the size of this patch, which may be shared with every other patch of
+     * that size
+     */
+    GuiPatch(Coordinate ul, Coordinate patchCoord, GrassTiles grass) {
+        this.upperLeft = ul;
+        this.patchCoord = patchCoord;
+        this.size = grass.getSize();
+        this.grass = grass;
+    }
+
+    public void paint(Graphics2D g, WorldSnapshot world) {
+        paintPatch(g, world);
+        //paintStats(g, world);
     }
 
     public Coordinate getUpperLeft() {
@@ -86,61 +78,20 @@ public class GuiPatch {
         return size;
     }
 
-    private void paintPatch(Graphics2D g) {
-        double d = patch.getPercentRemainingFood();
-        int alpha = (int) ((d / 100.0) * 200.0);
-
-        if (alpha < 1) {
-            alpha = 1;
-        }
-
-        Collections.shuffle(divisions);
-
-        for (Rectangle r : divisions) {
-            int da = 200;
-            if (d < 99.0) {
-                int s = alpha - 10;
-                if (s < 1) {
-                    s = 1;
-                }
-                da = Rng.getInstance().nextInt(alpha) + s;
-                if (da > 200) {
-                    da = 200;
-                }
-            }
-            grass = new Color(0, 255, 0, da);
-            g.setColor(grass);
-            g.fill(r);
-        }
+    private void paintPatch(Graphics2D g, WorldSnapshot world) {
+        g.drawImage(grass.get(world.getPercentRemainingFood(patchCoord)), upperLeft.getX(),
+            upperLeft.getY(), null);
     }
 
-    private void paintStats(Graphics2D g) {
+    private void paintStats(Graphics2D g, WorldSnapshot world) {
         g.setColor(Color.white);
         Font f = g.getFont();
         Font d = f.deriveFont(11.0f);
-        int males = neds.getMaleCount(patchCoord);
-        int females = neds.getFemaleCount(patchCoord);
-        String str = "food(" + patch.getFood() + ")  m(" + males + ") f(" + females + ")";
+        int males = world.getMaleCount(patchCoord);
+        int females = world.getFemaleCount(patchCoord);
+        String str = "food(" + world.getFood(patchCoord) + ")  m(" + males + ") f(" + females + ")";
         Rectangle2D r = d.getStringBounds(str, g.getFontRenderContext());
         g.setFont(d);
         g.drawString(str, upperLeft.getX() + 2, (int) (upperLeft.getY() + r.getHeight() - 1));
     }
-
-    private void initializeDivisions() {
-        if (divisions == null) {
-            divisions = new ArrayList<>();
-
-            int hw = size.getWidth() / this.divisionDimensions.getWidth();
-            int hh = size.getHeight() / this.divisionDimensions.getHeight();
-            int ux = upperLeft.getX();
-            int uy = upperLeft.getY();
-
-            for (int rows = 0; rows < this.divisionDimensions.getHeight(); rows++) {
-                for (int cols = 0; cols < this.divisionDimensions.getWidth(); cols++) {
-                    Rectangle r = new Rectangle(ux, uy, hw * (cols + 1), hh * (rows + 1));
-                    divisions.add(r);
-                }
-            }
-        }
-    }
 }
@@ -29,51 +29,124 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
-import java.awt.Point;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.util.Set;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tjc.neds.simulation.Coordinate;
 import org.tjc.neds.simulation.Dimensions;
 import org.tjc.neds.simulation.Ned;
 import org.tjc.neds.simulation.Neds;
-import org.tjc.neds.simulation.NedsEvent;
-import org.tjc.neds.simulation.NedsEventListener;
-import org.tjc.neds.simulation.Patch;
+import org.tjc.neds.simulation.WorldSnapshot;
 
-public class NedField extends JPanel implements NedsEventListener, ComponentListener {
+/**
+ * Draws the field of a simulation at a steady frame rate of its own, however fast or slow the
+ * simulation steps. A timer on the event dispatch thread looks at the last published snapshot on
+ * every frame and repaints only if it is newer than the one drawn, so steps published between two
+ * frames are never drawn and a simulation at full speed costs the event dispatch thread no more
+ * than one paint a frame.
+ *
+ * @author Thomas
+ */
+public class NedField extends JPanel implements ComponentListener {
 
     private static final Logger log = LoggerFactory.getLogger(NedField.class);
     private static final long serialVersionUID = -1931472112999786156L;
     private static final ReentrantLock lock = new ReentrantLock();
+    /**
+     * The narrowest a patch may be, in pixels, for it to be drawn with its neds. A field whose
+     * patches would be any smaller is drawn as a heatmap.
+     */
+    private static final int MinPatchSize = 6;
+    /**
+     * How many blocks whose food is growing back a heatmap frame looks at again.
+     */
+    private static final int RegrowBudget = 1 << 16;
+    /**
+     * How many frames a second a field draws until told otherwise.
+     */
+    public static final int DefaultFramesPerSecond = 60;
     private GuiPatch[][] guiPatches = null;
-    private Patch[][] patches = null;
     private int rows;
     private int cols;
     private boolean initialized = false;
     private final Dimensions dimensions;
     private Neds neds;
+    private BufferedImage image;
+    private long drawn = -1;
+    /**
+     * The patches, or in a heatmap the blocks of level 1, whose food was short of full when they
+     * were last drawn.
+     */
+    private final BitSet growing = new BitSet();
+    private FieldPyramid pyramid;
+    private BufferedImage heatmap;
+    private int level;
+    private int regrowFrom;
+    private final Timer frames;
+    private int framesPerSecond = DefaultFramesPerSecond;
 
     public NedField(Neds neds) {
         super(true);
         this.neds = neds;
         this.dimensions = neds.getDimension();
-        this.neds = neds;
-        this.patches = neds.getFields();
         this.setLayout(new GridLayout(dimensions.getHeight(), dimensions.getWidth()));
-        this.neds.addNedsEventListener(this);
+        this.frames = new Timer(1000 / DefaultFramesPerSecond, (e) -> nextFrame());
+        frames.setCoalesce(true);
         addComponentListener(this);
     }
 
+    /**
+     * @param fps how many times a second to look for a new step to draw
+     */
+    public void setFramesPerSecond(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("frames per second must be positive: " + fps);
+        }
+        framesPerSecond = fps;
+        frames.setDelay(Math.max(1000 / fps, 1));
+    }
+
+    public int getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    private void nextFrame() {
+        if (neds.getSnapshot().getVersion() != drawn) {
+            repaint();
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        frames.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        frames.stop();
+        super.removeNotify();
+    }
+
     public Dimensions getDimension() {
         return dimensions;
     }
 
+    /**
+     * Brings the offscreen image of the field up to date with the last snapshot and copies it to
+     * the screen. Only the cells that changed since the image was last drawn are redrawn, along
+     * with those still growing back their food; the whole field is drawn when the image is new or
+     * has fallen too far behind. A field with patches too small to show neds in is drawn as a
+     * heatmap of food and neds instead, at about one block of cells to a pixel.
+     */
     @Override
     public void paintComponent(Graphics g) {
         lock.lock();
@@ -81,77 +154,202 @@ public class NedField extends JPanel implements NedsEventListener, ComponentList
             if (!initialized) {
                 initialize();
             }
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.setColor(Color.black);
-            g2d.fillRect(0, 0, getWidth(), getHeight());
-            paintPatches(g2d);
-            drawGrid(g2d);
-            paintNedsRandomly(g2d);
+            render(neds.getSnapshot());
+            g.drawImage(image, 0, 0, null);
         }
         finally {
             lock.unlock();
         }
     }
 
-    private void paintPatches(Graphics2D g) {
-        for (int y = 0; y < cols; y++) {
-            for (int x = 0; x < rows; x++) {
-                GuiPatch p = guiPatches[x][y];
-                p.paint(g);
+    private void render(WorldSnapshot world) {
+        int w = Math.max(getWidth(), 1);
+        int h = Math.max(getHeight(), 1);
+        if (image == null || image.getWidth() != w || image.getHeight() != h) {
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            drawn = -1;
+        }
+        if (world.getVersion() == drawn) {
+            return;
+        }
+        int[] changed = drawn < 0 ? null : world.getChangedCells(drawn);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (guiPatches == null) {
+                renderHeatmap(g, world, changed);
+            }
+            else {
+                renderPatches(g, world, changed);
             }
         }
+        finally {
+            g.dispose();
+        }
+        drawn = world.getVersion();
     }
 
-    private void drawGrid(Graphics2D g) {
-        int w = this.getWidth() / dimensions.getHeight();
-        int h = this.getHeight() / dimensions.getHeight();
+    private void renderPatches(Graphics2D g, WorldSnapshot world, int[] changed) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (changed == null) {
+            g.setColor(Color.black);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            growing.clear();
+            for (int cell = 0; cell < rows * cols; cell++) {
+                paintCell(g, world, cell);
+            }
+        }
+        else {
+            BitSet dirty = (BitSet) growing.clone();
+            for (int cell : changed) {
+                dirty.set(cell);
+            }
+            for (int cell = dirty.nextSetBit(0); cell >= 0; cell = dirty.nextSetBit(cell + 1)) {
+                paintCell(g, world, cell);
+            }
+        }
+    }
 
+    /**
+     * Draws the field a pixel to a block of the pyramid. The blocks holding changed cells are
+     * summed afresh, as are some of those whose food is growing back, taken in turn from frame to
+     * frame, and the pixels whose blocks changed are coloured again before the heatmap is
+     * stretched over the field.
+     */
+    private void renderHeatmap(Graphics2D g, WorldSnapshot world, int[] changed) {
+        int bw = pyramid.getWidth(level);
+        int bh = pyramid.getHeight(level);
+        if (heatmap == null || heatmap.getWidth() != bw || heatmap.getHeight() != bh) {
+            heatmap = new BufferedImage(bw, bh, BufferedImage.TYPE_INT_RGB);
+            changed = null;
+        }
+        if (changed == null) {
+            pyramid.rebuild(world);
+            growing.clear();
+            for (int block = 0; block < pyramid.getWidth(1) * pyramid.getHeight(1); block++) {
+                growing.set(block, isGrowing(world, block));
+            }
+            for (int block = 0; block < bw * bh; block++) {
+                heatmap.setRGB(block % bw, block / bw, heat(world, block));
+            }
+        }
+        else {
+            BitSet blocks = new BitSet();
+            for (int cell : changed) {
+                blocks.set(pyramid.blockOf(1, cell));
+            }
+            int block = growing.nextSetBit(regrowFrom);
+            for (int n = 0; n < RegrowBudget && block >= 0; n++) {
+                blocks.set(block);
+                block = growing.nextSetBit(block + 1);
+            }
+            regrowFrom = block < 0 ? 0 : block;
+            pyramid.count(world);
+            BitSet dirty = new BitSet();
+            for (block = blocks.nextSetBit(0); block >= 0; block = blocks.nextSetBit(block + 1)) {
+                if (pyramid.update(world, block) || level == 0) {
+                    markDirty(dirty, block);
+                }
+                growing.set(block, isGrowing(world, block));
+            }
+            for (block = dirty.nextSetBit(0); block >= 0; block = dirty.nextSetBit(block + 1)) {
+                heatmap.setRGB(block % bw, block / bw, heat(world, block));
+            }
+        }
+        g.drawImage(heatmap, 0, 0, image.getWidth(), image.getHeight(), null);
+    }
+
+    /**
+     * Marks the pixels of the heatmap that show a block of level 1.
+     */
+    private void markDirty(BitSet dirty, int block) {
+        if (level > 0) {
+            dirty.set(pyramid.ancestor(level, block));
+            return;
+        }
+        int x = block % pyramid.getWidth(1) * 2;
+        int y = block / pyramid.getWidth(1) * 2;
+        for (int cy = y; cy < Math.min(y + 2, rows); cy++) {
+            for (int cx = x; cx < Math.min(x + 2, cols); cx++) {
+                dirty.set(cy * cols + cx);
+            }
+        }
+    }
+
+    private boolean isGrowing(WorldSnapshot world, int block) {
+        return pyramid.getFood(world, 1, block) < pyramid.cells(1, block) * world.getMaxFood();
+    }
+
+    /**
+     * The colour of a block of the heatmap: the greener the more food it holds, and the more
+     * magenta the more neds are on it, a block with a ned to every cell being wholly magenta.
+     */
+    private int heat(WorldSnapshot world, int block) {
+        double cells = pyramid.cells(level, block);
+        double food = pyramid.getFood(world, level, block) / (cells * world.getMaxFood());
+        double crowd = Math.min(1.0, Math.sqrt(pyramid.getNeds(world, level, block) / cells));
+        int green = (int) (food * 200 * (1.0 - crowd));
+        int magenta = (int) (crowd * 255);
+        return magenta << 16 | green << 8 | magenta;
+    }
+
+    /**
+     * Draws one cell afresh: its grass, its top and left edges of the grid, and the neds on it.
+     */
+    private void paintCell(Graphics2D g, WorldSnapshot world, int cell) {
+        Coordinate c = new Coordinate(cell % cols, cell / cols);
+        GuiPatch gp = getGuiPatch(c);
+        int x = gp.getUpperLeft().getX();
+        int y = gp.getUpperLeft().getY();
+        int w = gp.getSize().getWidth();
+        int h = gp.getSize().getHeight();
+        Shape clip = g.getClip();
+        g.clipRect(x, y, w, h);
+        g.setColor(Color.black);
+        g.fillRect(x, y, w, h);
+        gp.paint(g, world);
         g.setColor(Color.GRAY);
-        for (int x = 0; x < w; x++) {
-            g.drawLine(0, x * h, this.getWidth(), x * h);
+        g.drawRect(x, y, w, h);
+        for (Ned ned : world.getNeds(c)) {
+            paintNed(g, ned, gp);
         }
+        g.setClip(clip);
+        growing.set(cell, world.getFood(c) < world.getMaxFood());
+    }
 
-        for (int y = 0; y < h; y++) {
-            g.drawLine(y * w, 0, y * w, this.getHeight());
+    private void paintNed(Graphics2D g, Ned ned, GuiPatch gp) {
+        int size = ned.getAge() < 12 ? 5 : 10;
+        Coordinate c = placeInPatch(ned, gp, size / 2);
+        if (ned.getSex() == 'm') {
+            g.setColor(Color.blue);
+        }
+        else {
+            g.setColor(Color.pink);
         }
+        int x = c.getX() - size / 2;
+        int y = c.getY() - size / 2;
+        g.fillOval(x, y, size, size);
+        g.setColor(Color.black);
+        g.drawOval(x, y, size, size);
     }
 
-    private void paintNedsRandomly(final Graphics2D g) {
-        Set<Ned> ns = neds.getAllNeds();
-        ns.stream().
-            forEach((ned) -> {
-                GuiPatch gp;
-                Coordinate c;
-                if (ned.getPoint() == null) {
-                    gp = getGuiPatch(ned.getCoord());
-                    c = Coordinate.newRandomCoordinate(gp.getUpperLeft(), gp.getSize());
-                    ned.setPoint(new Point(c.getX(), c.getY()));
-                }
-                else {
-                    c = new Coordinate(ned.getPoint().x, ned.getPoint().y);
-                }
-                if (ned.getSex() == 'm') {
-                    g.setColor(Color.blue);
-                }
-                else {
-                    g.setColor(Color.pink);
-                }
-                Dimensions nedSize;
-                if (ned.getAge() < 12) {
-                    nedSize = new Dimensions(5, 5);
-                }
-                else {
-                    nedSize = new Dimensions(10, 10);
-                }
-                int x = c.getX();
-                int y = c.getY();
-                int nw = nedSize.getWidth();
-                int nh = nedSize.getHeight();
-                g.fillOval(x - nw / 2, y - nh / 2, nw, nh);
-                g.setColor(Color.black);
-                g.drawOval(x - nw / 2, y - nh / 2, nw, nh);
-            });
+    /**
+     * Scatters neds over their patch by hashing each ned's id with its location, so a ned keeps its
+     * spot from frame to frame and only jumps when it moves to another patch. Neds are kept clear
+     * of the patch's edges, since a cell is redrawn on its own and a ned spilling over into the
+     * next cell would be left behind there.
+     *
+     * @param inset how far to keep from the edges
+     */
+    private Coordinate placeInPatch(Ned ned, GuiPatch gp, int inset) {
+        long h = (ned.getId() * 0x9E3779B97F4A7C15L) ^ ((long) ned.getX() << 32 | ned.getY());
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        int w = Math.max(gp.getSize().getWidth() - 2 * inset, 1);
+        int ph = Math.max(gp.getSize().getHeight() - 2 * inset, 1);
+        int x = gp.getUpperLeft().getX() + inset + (int) Math.floorMod(h, (long) w);
+        int y = gp.getUpperLeft().getY() + inset + (int) Math.floorMod(h >>> 32, (long) ph);
+        return new Coordinate(x, y);
     }
 
     private GuiPatch getGuiPatch(Coordinate c) {
@@ -165,7 +363,6 @@ public class NedField extends JPanel implements NedsEventListener, ComponentList
      */
     private void initialize() {
         log.debug("initialize: {}", dimensions);
-        this.patches = neds.getFields();
 
         int w = this.getWidth();
         int h = this.getHeight();
@@ -176,26 +373,36 @@ public class NedField extends JPanel implements NedsEventListener, ComponentList
         int patchWidth = w / cols;
         int patchHeight = h / rows;
 
-        Dimensions patchDimensions = new Dimensions(patchWidth, patchHeight);
-
-        guiPatches = new GuiPatch[cols][rows];
-
-        neds.resetNedPoint();
-
         lock.lock();
         try {
-            int top = 0;
-            for (int y = 0; y < rows; y++) {
-                int left = 0;
-                for (int x = 0; x < cols; x++) {
-                    Coordinate c = new Coordinate(left, top);
-                    Coordinate pc = new Coordinate(x, y);
-                    GuiPatch gp = new GuiPatch(neds, patches[x][y], c, pc, patchDimensions);
-                    guiPatches[x][y] = gp;
-                    left += patchWidth;
+            if (patchWidth < MinPatchSize || patchHeight < MinPatchSize) {
+                guiPatches = null;
+                if (pyramid == null) {
+                    pyramid = new FieldPyramid(cols, rows);
+                }
+                level = 0;
+                while (pyramid.getWidth(level) > Math.max(w, 1) ||
+                    pyramid.getHeight(level) > Math.max(h, 1)) {
+                    level++;
+                }
+            }
+            else {
+                GrassTiles grass = new GrassTiles(new Dimensions(patchWidth, patchHeight));
+                guiPatches = new GuiPatch[cols][rows];
+                int top = 0;
+                for (int y = 0; y < rows; y++) {
+                    int left = 0;
+                    for (int x = 0; x < cols; x++) {
+                        Coordinate c = new Coordinate(left, top);
+                        Coordinate pc = new Coordinate(x, y);
+                        GuiPatch gp = new GuiPatch(c, pc, grass);
+                        guiPatches[x][y] = gp;
+                        left += patchWidth;
+                    }
+                    top += patchHeight;
                 }
-                top += patchHeight;
             }
+            drawn = -1;
             setVisible(true);
             initialized = true;
         }
@@ -204,14 +411,6 @@ public class NedField extends JPanel implements NedsEventListener, ComponentList
         }
     }
 
-    @Override
-    public void handle(NedsEvent event) {
-        if (event.getEvent().equals("step")) {
-            repaint(0);
-        }
-
-    }
-
     @Override
     public void componentHidden(ComponentEvent e) {
     }
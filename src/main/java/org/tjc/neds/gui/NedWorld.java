@@ -34,21 +34,26 @@ import java.awt.GridLayout;
 import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import javax.management.JMException;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.JToolBar;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import org.slf4j.Logger;
@@ -58,8 +63,11 @@ import org.tjc.neds.simulation.Ned;
 import org.tjc.neds.simulation.Neds;
 import org.tjc.neds.simulation.NedsEvent;
 import org.tjc.neds.simulation.NedsEventListener;
+import org.tjc.neds.simulation.PopulationStats;
 import org.tjc.neds.simulation.Range;
 import org.tjc.neds.simulation.Rng;
+import org.tjc.neds.simulation.StepScheduler;
+import org.tjc.neds.simulation.WorldSnapshot;
 import org.tjc.neds.simulation.util.Resources;
 
 /**
@@ -88,12 +96,17 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
     private static final int DEFAULT_POPULATION = 20;
     private static final Dimensions DEFAULT_DIMENSIONS = new Dimensions(8, 8);
     private static final Range<Integer> DEFAULT_FOOD_RANGE = new Range<>(0, 50);
+    /**
+     * Milliseconds between looks at the simulation to bring the status bar up to date.
+     */
+    private static final int STATUS_INTERVAL = 250;
 
     private NedField nedField = null;
     private JPanel jContentPane = null;
     private JMenuBar jJMenuBar = null;
     private JMenu jMenu = null;
     private JMenuItem jMenuItem1 = null;
+    private JMenuItem jMenuItem2 = null;
     private JMenuItem jMenuItem3 = null;
     private JMenuItem jMenuItem4 = null;
     private JMenuItem jMenuItem5 = null;
@@ -104,12 +117,15 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
     private JLabel population = null;
     private JLabel day = null;
     private JLabel seed = null;
+    private JLabel sexes = null;
+    private JLabel genomes = null;
+    private JLabel foodSacks = null;
     private JSlider speedSlider = null;
     private Neds neds;
-    private Thread nedsThread;
-    private final int delay = DEFAULT_DELAY;
+    private final StepScheduler scheduler = new StepScheduler(rateOf(DEFAULT_DELAY));
+    private final Timer statusTimer = new Timer(STATUS_INTERVAL, (e) -> refreshStats());
+    private long statsVersion = -1;
     private final Dimensions dimensions;
-    private int currStep;
     private JPanel statusBar;
     private JToolBar animToolBar;
     private final Map<String, JButton> buttons = new HashMap<>();
@@ -161,6 +177,7 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
         this.playing = new ImageIcon(Resources.getResource("images/PlayingButton.png"));
         add(getAnimationToolbar(), BorderLayout.PAGE_START);
         updateStats();
+        statusTimer.start();
     }
 
     private JToolBar getAnimationToolbar() {
@@ -195,7 +212,7 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             speedSlider.setMaximumSize(new Dimension(300, 25));
             speedSlider.setInverted(true);
             speedSlider.addChangeListener(this);
-            neds.setDelay(speedSlider.getValue());
+            scheduler.setStepsPerSecond(rateOf(speedSlider.getValue()));
             tb.add(speedSlider);
         }
     }
@@ -260,6 +277,9 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             population = new JLabel();
             day = new JLabel();
             seed = new JLabel();
+            sexes = new JLabel();
+            genomes = new JLabel();
+            foodSacks = new JLabel();
 
             Font font = statusBar.getFont().deriveFont(12.0f);
 
@@ -269,6 +289,9 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             statusBar.add(deaths);
             statusBar.add(population);
             statusBar.add(day);
+            statusBar.add(sexes);
+            statusBar.add(genomes);
+            statusBar.add(foodSacks);
             statusBar.setVisible(true);
 
             newBorns.setFont(font);
@@ -277,6 +300,9 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             population.setFont(font);
             day.setFont(font);
             seed.setFont(font);
+            sexes.setFont(font);
+            genomes.setFont(font);
+            foodSacks.setFont(font);
         }
         return statusBar;
     }
@@ -304,6 +330,7 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
         if (jMenu == null) {
             jMenu = new JMenu();
             jMenu.setText("File");
+            jMenu.add(getJMenuItem2());
             jMenu.add(getJMenuItem1());
         }
         return jMenu;
@@ -330,6 +357,17 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
         return jMenuItem1;
     }
 
+    private JMenuItem getJMenuItem2() {
+        if (jMenuItem2 == null) {
+            jMenuItem2 = new JMenuItem();
+            jMenuItem2.setText("Open Snapshot...");
+            jMenuItem2.addActionListener((java.awt.event.ActionEvent e) -> {
+                openSimulation();
+            });
+        }
+        return jMenuItem2;
+    }
+
     private JMenu getJMenu2() {
         if (jMenu2 == null) {
             jMenu2 = new JMenu();
@@ -386,6 +424,14 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
         });
     }
 
+    /**
+     * @param delay milliseconds from one step to the next, as set on the speed slider
+     * @return the steps per second that makes
+     */
+    private static double rateOf(int delay) {
+        return delay > 0 ? 1000.0 / delay : StepScheduler.MaxSpeed;
+    }
+
     private JPanel getNedField() {
         return nedField;
     }
@@ -395,17 +441,14 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
      */
     public void runSimulation() {
         log.debug("NedWorld: runSimulation().");
-        nedsThread = new Thread(neds);
-        nedsThread.start();
+        scheduler.resume(neds);
     }
 
     /**
      *
      */
     public void stopSimulation() {
-        if (nedsThread != null) {
-            nedsThread.interrupt();
-        }
+        scheduler.pause();
     }
 
     /**
@@ -426,13 +469,75 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
         neds = newNeds();
     }
 
+    /**
+     * Checkpoints the current session to a snapshot file of the user's choosing.
+     */
+    public void saveSimulation() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            Path file = chooser.getSelectedFile().toPath();
+            try {
+                neds.save(file);
+            }
+            catch (IOException e) {
+                log.error("can't save snapshot " + file, e);
+                JOptionPane.showMessageDialog(this, "Can't save " + file + ": " + e.getMessage(),
+                    "Save", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Replaces the current session with one resumed from a snapshot file.
+     */
+    public void openSimulation() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            Path file = chooser.getSelectedFile().toPath();
+            try {
+                Neds restored = Neds.restore(file, DEFAULT_DELAY, 1);
+                stopSimulation();
+                attach(restored);
+                updateStats();
+            }
+            catch (IOException e) {
+                log.error("can't open snapshot " + file, e);
+                JOptionPane.showMessageDialog(this, "Can't open " + file + ": " + e.getMessage(),
+                    "Open", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
     /**
      *
      * @return
      */
     private Neds newNeds() {
-        currStep = 0;
-        neds = new Neds(DEFAULT_DIMENSIONS, DEFAULT_POPULATION, DEFAULT_FOOD_RANGE, DEFAULT_DELAY);
+        return attach(new Neds(DEFAULT_DIMENSIONS, DEFAULT_POPULATION, DEFAULT_FOOD_RANGE,
+            DEFAULT_DELAY));
+    }
+
+    /**
+     * Shows a simulation in place of the current one, which must already be pausing, and shuts
+     * the current one down once its last step is done. The current one's Stopped event no longer
+     * reaches this window, so the buttons are set for a paused simulation here.
+     */
+    private Neds attach(Neds neds) {
+        Neds old = this.neds;
+        if (old != null) {
+            old.removeNedsEventListener(this);
+            showPaused();
+        }
+        try {
+            if (old != null) {
+                old.getMetrics().unregister();
+            }
+            neds.getMetrics().register("NedWorld");
+        }
+        catch (JMException e) {
+            log.warn("can't publish step metrics over JMX", e);
+        }
+        this.neds = neds;
         if (jContentPane != null && nedField != null) {
             jContentPane.remove(nedField);
         }
@@ -441,55 +546,96 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             jContentPane.add(nedField, BorderLayout.CENTER);
         }
         neds.addNedsEventListener(this);
-        int sliderDelay = 1000;
-        if (speedSlider != null) {
-            sliderDelay = speedSlider.getValue();
+        if (old != null) {
+            retire(old);
         }
-        neds.setDelay(sliderDelay);
         return neds;
     }
 
+    /**
+     * Shuts a replaced simulation down on a thread of its own once its last step is done, so
+     * the event dispatch thread never waits for a step.
+     */
+    private void retire(Neds old) {
+        Thread t = new Thread(() -> {
+            try {
+                scheduler.awaitStopped(old);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            old.shutdown();
+        }, "neds-retire");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void showPaused() {
+        JButton b = buttons.get("Pause");
+        if (b != null) {
+            b.setEnabled(false);
+        }
+        b = buttons.get("Play");
+        if (b != null) {
+            b.setIcon(play);
+            b.setEnabled(true);
+        }
+    }
+
     public boolean isListening() {
         return true;
     }
 
+    /**
+     * Brings the status bar up to date if a step has been published since it was last updated.
+     * Called on the event dispatch thread a few times a second, however fast the simulation runs.
+     */
+    private void refreshStats() {
+        if (neds != null && neds.getSnapshot().getVersion() != statsVersion) {
+            updateStats();
+        }
+    }
+
     private void updateStats() {
         if (neds != null) {
-            this.newBorns.setText("Births: " + neds.getBirths());
-            Ned ned = neds.getOldestNed();
+            WorldSnapshot world = neds.getSnapshot();
+            statsVersion = world.getVersion();
+            PopulationStats stats = world.getStats();
+            this.newBorns.setText("Births: " + world.getBirths());
+            Ned ned = world.getOldestNed();
             if (ned != null) {
                 this.oldestNed.setText("Oldest Ned: age: " + ned.getAge() + ", id: " + ned.getDna());
             }
-            this.deaths.setText("Deaths: " + neds.getDeaths());
-            this.population.setText("Population: " + neds.getPopulation());
-            this.day.setText("Day: " + currStep);
-            this.seed.setText("Seed: " + Rng.getInstance().getSeed());
-            currStep++;
+            else {
+                this.oldestNed.setText("Oldest Ned: none");
+            }
+            this.deaths.setText("Deaths: " + world.getDeaths());
+            this.population.setText("Population: " + stats.getLive());
+            this.sexes.setText("Males: " + stats.getMales() + ", females: " + stats.getFemales());
+            this.genomes.setText("Genomes: " + stats.getDistinctGenomes());
+            this.foodSacks.setText(String.format("Food sacks: %.0f%%", stats.getMeanFoodSackFill() *
+                100));
+            this.day.setText("Day: " + world.getStep());
+            this.seed.setText("Seed: " + neds.getSeed());
         }
     }
 
+    /**
+     * Called on the listener's own thread, so anything that touches Swing is handed to the event
+     * dispatch thread. Steps are left to the status timer.
+     */
     @Override
     public void handle(NedsEvent event) {
-        updateStats();
-        if (event.getEvent().equals("stopped")) {
+        if (event.getType() == NedsEvent.Type.Stopped) {
             log.debug("Postmortem:");
-            Set<Ned> s = neds.getAllNeds();
-            log.debug("number of neds: " + s.size());
-            int alive = 0;
-            int dead = 0;
-            for (Ned ned : s) {
-                if (ned.isAlive()) {
-                    alive++;
-                }
-                else {
-                    dead++;
-                }
-            }
-            log.debug("alive: " + alive + ", dead: " + dead);
-            JButton b = buttons.get("Pause");
-            b.setEnabled(false);
-            b = buttons.get("Play");
-            b.setEnabled(true);
+            WorldSnapshot world = event.getNeds().getSnapshot();
+            PopulationStats stats = world.getStats();
+            log.debug("alive: " + stats.getLive() + ", dead: " + world.getDeaths() +
+                ", oldest age: " + stats.getMaxAge() + ", genomes: " + stats.getDistinctGenomes());
+            SwingUtilities.invokeLater(() -> {
+                updateStats();
+                showPaused();
+            });
         }
     }
 
@@ -521,6 +667,9 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
             case "New":
                 newSimulation();
                 break;
+            case "Save":
+                saveSimulation();
+                break;
         }
         updateStats();
     }
@@ -528,9 +677,6 @@ public class NedWorld extends JFrame implements NedsEventListener, ActionListene
     @Override
     public void stateChanged(ChangeEvent e) {
         JSlider js = (JSlider) e.getSource();
-        if (!js.getValueIsAdjusting()) {
-            int sliderDelay = (int) js.getValue();
-            neds.setDelay(sliderDelay);
-        }
+        scheduler.setStepsPerSecond(rateOf(js.getValue()));
     }
 }
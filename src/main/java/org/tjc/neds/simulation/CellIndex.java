@@ -0,0 +1,303 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Spatial index of the population. Cells are addressed by the integer id {@code y * width + x} and
+ * each cell's neds are chained through intrusive, slot-indexed next/prev links, so the index costs
+ * two ints per cell plus two ints per ned and never allocates on a move.
+ *
+ * The per-cell ints are kept in chunks of {@link #ChunkCells} consecutive cells, and a chunk is
+ * only allocated once a ned enters it. Chunks that have emptied are dropped when the index is
+ * rebuilt, so the index grows with the area the neds occupy rather than with the field.
+ *
+ * The occupied cells are also marked in a bitmap, one bit per cell, over which sits a summary
+ * with one bit per word of the bitmap. Walking the occupied cells with {@link #nextOccupied}
+ * skips empty stretches of the field 64 or 4096 cells at a time, so the work scales with the
+ * cells that hold neds rather than with the area of the field.
+ *
+ * @author Thomas
+ */
+class CellIndex {
+
+    static final int ChunkBits = 10;
+    static final int ChunkCells = 1 << ChunkBits;
+    static final int ChunkMask = ChunkCells - 1;
+
+    private static final int None = -1;
+
+    private final int width;
+    private final int height;
+    private final int cells;
+    private final int[][] head;
+    private final int[][] count;
+    private final long[] occupied;
+    private final long[] summary;
+    private int[] next;
+    private int[] prev;
+
+    CellIndex(Dimensions d, int capacity) {
+        this.width = d.getWidth();
+        this.height = d.getHeight();
+        this.cells = width * height;
+        this.head = new int[(cells + ChunkCells - 1) >>> ChunkBits][];
+        this.count = new int[head.length][];
+        this.occupied = new long[(cells + 63) >>> 6];
+        this.summary = new long[(occupied.length + 63) >>> 6];
+        this.next = new int[Math.max(capacity, 1)];
+        this.prev = new int[Math.max(capacity, 1)];
+    }
+
+    int cellOf(int x, int y) {
+        return y * width + x;
+    }
+
+    int getX(int cell) {
+        return cell % width;
+    }
+
+    int getY(int cell) {
+        return cell / width;
+    }
+
+    int cells() {
+        return cells;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param cell
+     * @return the first slot in the cell, or -1 if the cell is empty
+     */
+    int first(int cell) {
+        int[] h = head[cell >>> ChunkBits];
+        return h == null ? None : h[cell & ChunkMask];
+    }
+
+    /**
+     * @param slot
+     * @return the slot after this one in its cell, or -1 at the end of the cell
+     */
+    int next(int slot) {
+        return next[slot];
+    }
+
+    int count(int cell) {
+        int[] c = count[cell >>> ChunkBits];
+        return c == null ? 0 : c[cell & ChunkMask];
+    }
+
+    /**
+     * @param from the first cell to look at
+     * @param to the cell to stop before
+     * @return the first cell from {@code from} up to {@code to} that holds a ned, or -1 if they
+     * are all empty
+     */
+    int nextOccupied(int from, int to) {
+        if (from >= to) {
+            return None;
+        }
+        int limit = (to + 63) >>> 6;
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L << from);
+        while (bits == 0) {
+            word = nextOccupiedWord(word + 1, limit);
+            if (word == None) {
+                return None;
+            }
+            bits = occupied[word];
+        }
+        int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return cell < to ? cell : None;
+    }
+
+    private int nextOccupiedWord(int from, int limit) {
+        if (from >= limit) {
+            return None;
+        }
+        int s = from >>> 6;
+        long bits = summary[s] & (-1L << from);
+        while (bits == 0) {
+            if (++s << 6 >= limit) {
+                return None;
+            }
+            bits = summary[s];
+        }
+        int word = (s << 6) + Long.numberOfTrailingZeros(bits);
+        return word < limit ? word : None;
+    }
+
+    private void mark(int cell) {
+        int word = cell >>> 6;
+        occupied[word] |= 1L << cell;
+        summary[word >>> 6] |= 1L << word;
+    }
+
+    private void unmark(int cell) {
+        int word = cell >>> 6;
+        occupied[word] &= ~(1L << cell);
+        if (occupied[word] == 0) {
+            summary[word >>> 6] &= ~(1L << word);
+        }
+    }
+
+    boolean contains(int cell, int slot) {
+        for (int s = first(cell); s != None; s = next[s]) {
+            if (s == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(int cell, int slot) {
+        if (slot >= next.length) {
+            int capacity = Math.max(slot + 1, next.length + (next.length >> 1));
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+        }
+        int k = cell >>> ChunkBits;
+        int i = cell & ChunkMask;
+        if (head[k] == null) {
+            head[k] = new int[Math.min(ChunkCells, cells - (k << ChunkBits))];
+            count[k] = new int[head[k].length];
+            Arrays.fill(head[k], None);
+        }
+        int h = head[k][i];
+        next[slot] = h;
+        prev[slot] = None;
+        if (h != None) {
+            prev[h] = slot;
+        }
+        head[k][i] = slot;
+        if (count[k][i]++ == 0) {
+            mark(cell);
+        }
+    }
+
+    void remove(int cell, int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != None) {
+            next[p] = n;
+        }
+        else {
+            head[cell >>> ChunkBits][cell & ChunkMask] = n;
+        }
+        if (n != None) {
+            prev[n] = p;
+        }
+        next[slot] = None;
+        prev[slot] = None;
+        if (--count[cell >>> ChunkBits][cell & ChunkMask] == 0) {
+            unmark(cell);
+        }
+    }
+
+    void move(int from, int to, int slot) {
+        remove(from, slot);
+        add(to, slot);
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo} writes
+     */
+    long bytes(int slots) {
+        return 4L * (cells + slots);
+    }
+
+    /**
+     * Writes the order of every cell's chain, which decides the order its neds eat in.
+     */
+    void writeTo(SnapshotWriter out, int slots) throws IOException {
+        int[] empty = new int[ChunkCells];
+        Arrays.fill(empty, None);
+        for (int k = 0; k < head.length; k++) {
+            int n = Math.min(ChunkCells, cells - (k << ChunkBits));
+            out.putInts(head[k] != null ? head[k] : empty, n);
+        }
+        out.putInts(next, slots);
+    }
+
+    void readFrom(SnapshotReader in, int slots) throws IOException {
+        if (slots > next.length) {
+            next = new int[slots];
+            prev = new int[slots];
+        }
+        int[] chunk = new int[ChunkCells];
+        for (int k = 0; k < head.length; k++) {
+            int n = Math.min(ChunkCells, cells - (k << ChunkBits));
+            in.getInts(chunk, n);
+            head[k] = null;
+            count[k] = null;
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] != None) {
+                    head[k] = Arrays.copyOf(chunk, n);
+                    count[k] = new int[n];
+                    break;
+                }
+            }
+        }
+        in.getInts(next, slots);
+        Arrays.fill(occupied, 0);
+        Arrays.fill(summary, 0);
+        for (int k = 0; k < head.length; k++) {
+            if (head[k] == null) {
+                continue;
+            }
+            for (int i = 0; i < head[k].length; i++) {
+                int p = None;
+                for (int s = head[k][i]; s != None; s = next[s]) {
+                    prev[s] = p;
+                    p = s;
+                    count[k][i]++;
+                }
+                if (count[k][i] > 0) {
+                    mark((k << ChunkBits) + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-files every live ned of the population, which is needed after it has been compacted.
+     * Only the cells that were occupied are cleared first, and chunks that have emptied are
+     * dropped.
+     *
+     * @param population
+     */
+    void rebuild(Population population) {
+        for (int k = 0; k < head.length; k++) {
+            if (head[k] == null) {
+                continue;
+            }
+            int base = k << ChunkBits;
+            int end = base + head[k].length;
+            int cell = nextOccupied(base, end);
+            if (cell == None) {
+                head[k] = null;
+                count[k] = null;
+            }
+            for (; cell != None; cell = nextOccupied(cell + 1, end)) {
+                head[k][cell & ChunkMask] = None;
+                count[k][cell & ChunkMask] = 0;
+            }
+        }
+        Arrays.fill(occupied, 0);
+        Arrays.fill(summary, 0);
+        int size = population.size();
+        for (int slot = size - 1; slot >= 0; slot--) {
+            if (population.isAlive(slot)) {
+                add(cellOf(population.getX(slot), population.getY(slot)), slot);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped scratch file that holds chunks paged out of memory. Every chunk has a fixed
+ * place in the file, so paging one out or in is a copy to or from the mapping with no bookkeeping.
+ * A single mapping is limited to 2GB, so the file is mapped in segments, each only when a chunk in
+ * it is first used; the file grows sparsely as segments are mapped.
+ *
+ * The file is temporary and is deleted when the store is closed. Whoever opens a store must close
+ * it: until then the file stays on disk and its mappings are only let go of whenever the garbage
+ * collector gets round to them.
+ *
+ * @author Thomas
+ */
+final class ChunkStore implements Closeable {
+
+    private static final long SegmentSize = 1L << 30;
+
+    private final FileChannel channel;
+    private final int chunkInts;
+    private final int chunksPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * @param chunks the number of chunks the store has room for
+     * @param chunkInts the number of ints in a chunk
+     * @throws IOException if the scratch file can't be created
+     */
+    ChunkStore(int chunks, int chunkInts) throws IOException {
+        Path file = Files.createTempFile("neds-", ".chunks");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+        this.chunkInts = chunkInts;
+        this.chunksPerSegment = (int) (SegmentSize / (chunkInts * 4L));
+        this.segments = new MappedByteBuffer[(chunks + chunksPerSegment - 1) / chunksPerSegment];
+    }
+
+    /**
+     * Writes a chunk as the given arrays one after another.
+     *
+     * @param chunk
+     * @param parts
+     * @throws IOException
+     */
+    void write(int chunk, int[]... parts) throws IOException {
+        IntBuffer ints = ints(chunk);
+        for (int[] part : parts) {
+            ints.put(part);
+        }
+    }
+
+    /**
+     * Reads a chunk back into arrays of the same lengths it was written from.
+     *
+     * @param chunk
+     * @param parts
+     * @throws IOException
+     */
+    void read(int chunk, int[]... parts) throws IOException {
+        IntBuffer ints = ints(chunk);
+        for (int[] part : parts) {
+            ints.get(part);
+        }
+    }
+
+    /**
+     * @param chunk
+     * @param index
+     * @return the int at the given index into the chunk
+     * @throws IOException
+     */
+    int get(int chunk, int index) throws IOException {
+        return ints(chunk).get(index + (chunk % chunksPerSegment) * chunkInts);
+    }
+
+    private IntBuffer ints(int chunk) throws IOException {
+        int s = chunk / chunksPerSegment;
+        if (segments[s] == null) {
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, s * SegmentSize,
+                (long) chunksPerSegment * chunkInts * 4);
+        }
+        IntBuffer ints = segments[s].asIntBuffer();
+        ints.position((chunk % chunksPerSegment) * chunkInts);
+        return ints;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,73 @@
+package org.tjc.neds.simulation;
+
+/**
+ * Counter-based random source. Rather than stepping a shared sequence, every draw is computed by
+ * hashing the world seed together with the step, the entity (a ned or cell id) and the purpose of
+ * the draw. The same decision therefore always gets the same number, whichever thread makes it and
+ * in whatever order, and there is no state to contend on.
+ *
+ * @author Thomas
+ */
+public final class CounterRng {
+
+    /**
+     * What a number is drawn for. Each purpose gets an independent stream, so adding a draw for one
+     * purpose never shifts the numbers seen by another.
+     */
+    public enum Purpose {
+        Dna,
+        Strand,
+        Sex,
+        Facing,
+        X,
+        Y,
+        Splice,
+        Food,
+        FoodGrowth
+    }
+
+    private static final long Golden = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    public CounterRng(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long nextLong(long step, long entity, Purpose purpose) {
+        long h = mix(seed + Golden * (purpose.ordinal() + 1));
+        h = mix(h ^ step);
+        return mix((h + Golden) ^ entity);
+    }
+
+    /**
+     * @param step
+     * @param entity
+     * @param purpose
+     * @param bound
+     * @return a number in [0, bound)
+     */
+    public int nextInt(long step, long entity, Purpose purpose, int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        return (int) (((nextLong(step, entity, purpose) >>> 32) * bound) >>> 32);
+    }
+
+    public boolean nextBoolean(long step, long entity, Purpose purpose) {
+        return nextLong(step, entity, purpose) < 0;
+    }
+
+    /**
+     * The SplitMix64 finalizer, a bijective mix with good avalanche.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
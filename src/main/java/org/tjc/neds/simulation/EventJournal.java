@@ -0,0 +1,181 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only binary log of what happens in each step of a simulation: every birth with its
+ * parents, every death with its cause, every move between cells, and a summary record closing each
+ * step. It is attached with {@link Neds#setJournal(EventJournal)} and read back with
+ * {@link JournalReader}.
+ *
+ * The step loop only copies records into one of a few preallocated buffers. A full buffer is
+ * handed to a background thread that writes it to the file channel and returns it for reuse, so
+ * the simulation only waits on the disk when it gets a whole pool of buffers ahead of it.
+ *
+ * <pre>
+ * file   := Magic Version record*
+ * record := Birth step id male female x y
+ *         | Death step id cause age x y
+ *         | Move  step id fromX fromY toX toY
+ *         | Step  step population births deaths
+ * </pre>
+ *
+ * Record tags and causes are bytes, ids are longs and everything else is an int, all big-endian.
+ *
+ * @author Thomas
+ */
+public class EventJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+
+    static final int Magic = 0x4E45444A;
+    static final int Version = 1;
+
+    static final byte Birth = 1;
+    static final byte Death = 2;
+    static final byte Move = 3;
+    static final byte Step = 4;
+
+    /** Largest record, a birth. */
+    private static final int MaxRecord = 1 + 4 + 8 + 8 + 8 + 4 + 4;
+    private static final int BufferSize = 1 << 20;
+    private static final int Buffers = 4;
+
+    /**
+     * Why a ned died.
+     */
+    public enum Cause {
+        /** It couldn't fill its food sack during a step. */
+        Starved,
+        /** It couldn't eat after mating. */
+        Mating
+    }
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(Buffers);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(Buffers + 1);
+    private final ByteBuffer end = ByteBuffer.allocate(0);
+    private final Thread writer;
+    private ByteBuffer current;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public EventJournal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < Buffers; i++) {
+            free.add(ByteBuffer.allocateDirect(BufferSize));
+        }
+        this.current = free.remove();
+        current.putInt(Magic).putInt(Version);
+        this.writer = new Thread(this::drain, "neds-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void birth(int step, long id, long male, long female, int x, int y) {
+        room().put(Birth).putInt(step).putLong(id).putLong(male).putLong(female).putInt(x).putInt(y);
+    }
+
+    void death(int step, long id, Cause cause, int age, int x, int y) {
+        room().put(Death).putInt(step).putLong(id).put((byte) cause.ordinal()).putInt(age).putInt(
+            x).putInt(y);
+    }
+
+    void move(int step, long id, int fromX, int fromY, int toX, int toY) {
+        room().put(Move).putInt(step).putLong(id).putInt(fromX).putInt(fromY).putInt(toX).putInt(
+            toY);
+    }
+
+    void endStep(int step, int population, int births, int deaths) {
+        room().put(Step).putInt(step).putInt(population).putInt(births).putInt(deaths);
+    }
+
+    /**
+     * @return the current buffer, after handing it to the writer if it can't take another record
+     */
+    private ByteBuffer room() {
+        if (current.remaining() < MaxRecord) {
+            handOff();
+        }
+        return current;
+    }
+
+    private void handOff() {
+        current.flip();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                full.put(current);
+                current = free.take();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        current.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            for (ByteBuffer buffer = full.take(); buffer != end; buffer = full.take()) {
+                try {
+                    if (failure == null) {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    log.error("event journal write failed, dropping the rest of the journal", e);
+                    failure = e;
+                }
+                buffer.clear();
+                free.add(buffer);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes out whatever has been recorded, waits for the writer to finish and closes the file.
+     *
+     * @throws IOException if any part of the journal could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            handOff();
+            full.put(end);
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The food growing on every patch of the field. Cells are addressed by their id
+ * ({@code y * width + x}) and grouped into chunks of {@link CellIndex#ChunkCells} consecutive
+ * cells. A chunk that is in memory costs three ints per cell: its food, its growth rate, and the
+ * step its food was last brought up to date.
+ *
+ * Chunks only come into memory when they are needed. A chunk nobody has touched yet is not stored
+ * at all, since what was planted in it follows from the seed and its food from the number of
+ * steps since. A chunk that holds no neds and whose every cell is full is cold: it is paged out to
+ * a {@link ChunkStore} and read back when a ned walks in. Memory therefore follows the area the
+ * neds occupy rather than the area of the field.
+ *
+ * Food grows back by the cell's growth rate at the end of every step, up to the field's maximum,
+ * but cells are not visited to make that happen: the food of a cell is worked out from its
+ * stored food and the number of regrowths since, whenever it is needed.
+ *
+ * A field that has paged chunks out holds the store's scratch file open, so its owner must
+ * {@link #close()} it once done with it; {@link Neds#shutdown()} does so.
+ *
+ * @author Thomas
+ */
+final class FoodField implements Closeable {
+
+    /**
+     * One chunk's cells in memory.
+     */
+    static final class Chunk {
+
+        final int[] food;
+        final int[] rate;
+        final int[] asOf;
+
+        Chunk(int[] food, int[] rate, int[] asOf) {
+            this.food = food;
+            this.rate = rate;
+            this.asOf = asOf;
+        }
+
+        /**
+         * @return a copy of the chunk's food that shares its growth rates, which never change
+         */
+        Chunk copy() {
+            return new Chunk(food.clone(), rate, asOf.clone());
+        }
+    }
+
+    /**
+     * Stands in for a chunk that is paged out, every cell of which is full.
+     */
+    static final Chunk Paged = new Chunk(new int[0], new int[0], new int[0]);
+
+    private final int width;
+    private final int height;
+    private final int cells;
+    private final int min;
+    private final int max;
+    private final CounterRng random;
+    private final Chunk[] chunks;
+    private final IntList changed = new IntList();
+    private ChunkStore store;
+    private int regrown;
+
+    FoodField(Dimensions d, Range<Integer> range, CounterRng random) {
+        this.width = d.getWidth();
+        this.height = d.getHeight();
+        this.cells = width * height;
+        this.min = range.getLow();
+        this.max = range.getHigh();
+        this.random = random;
+        this.chunks = new Chunk[chunks(d)];
+    }
+
+    /**
+     * @param d
+     * @return the number of chunks a field of the given size is made of
+     */
+    static int chunks(Dimensions d) {
+        return (d.getWidth() * d.getHeight() + CellIndex.ChunkCells - 1) >>> CellIndex.ChunkBits;
+    }
+
+    static boolean isResident(Chunk c) {
+        return c != null && c != Paged;
+    }
+
+    int cells() {
+        return cells;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getMin() {
+        return min;
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the last step whose regrowth the field's food includes
+     */
+    int getRegrown() {
+        return regrown;
+    }
+
+    /**
+     * Marks the end of a step's regrowth. Nothing is visited; every cell has simply grown once
+     * more the next time it is looked at.
+     *
+     * @param step
+     */
+    void regrow(int step) {
+        regrown = step;
+    }
+
+    /**
+     * @param chunk
+     * @return the chunk if it is in memory, {@link #Paged} if it is paged out, or null if nothing
+     * has been stored for it yet
+     */
+    Chunk chunk(int chunk) {
+        return chunks[chunk];
+    }
+
+    /**
+     * @return the chunks that came into memory or were paged out since the list was last cleared
+     */
+    IntList changed() {
+        return changed;
+    }
+
+    /**
+     * Brings the chunk holding a cell into memory, planting it or paging it in as needed.
+     *
+     * @param cell
+     * @return the chunk
+     */
+    Chunk touch(int cell) {
+        int k = cell >>> CellIndex.ChunkBits;
+        Chunk c = chunks[k];
+        if (isResident(c)) {
+            return c;
+        }
+        int base = k << CellIndex.ChunkBits;
+        int n = size(k);
+        Chunk in = new Chunk(new int[n], new int[n], new int[n]);
+        if (c == null) {
+            for (int i = 0; i < n; i++) {
+                in.food[i] = plantedFood(base + i);
+                in.rate[i] = plantedRate(base + i);
+            }
+        }
+        else {
+            try {
+                store.read(k, in.food, in.rate, in.asOf);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        chunks[k] = in;
+        changed.add(k);
+        return in;
+    }
+
+    /**
+     * Sets a cell's food and growth rate.
+     *
+     * @param cell
+     * @param food
+     * @param rate
+     */
+    void put(int cell, int food, int rate) {
+        Chunk c = touch(cell);
+        int i = cell & CellIndex.ChunkMask;
+        c.food[i] = food;
+        c.rate[i] = rate;
+        c.asOf[i] = regrown;
+    }
+
+    /**
+     * @param cell
+     * @return the food in the cell now
+     */
+    int getFood(int cell) {
+        return getFood(chunks[cell >>> CellIndex.ChunkBits], cell, regrown);
+    }
+
+    /**
+     * @param cell
+     * @param step
+     * @return the food in the cell once the given step's regrowth is done, if nobody eats from
+     * it in the meantime
+     */
+    int getFood(int cell, int step) {
+        return getFood(chunks[cell >>> CellIndex.ChunkBits], cell, step);
+    }
+
+    /**
+     * @param c the cell's chunk as this field or a copy of it holds it
+     * @param cell
+     * @param step
+     * @return the food in the cell as of the given step
+     */
+    int getFood(Chunk c, int cell, int step) {
+        if (isResident(c)) {
+            int i = cell & CellIndex.ChunkMask;
+            return grow(c.food[i], c.rate[i], step - c.asOf[i], max);
+        }
+        if (c == Paged) {
+            return max;
+        }
+        return grow(plantedFood(cell), plantedRate(cell), step, max);
+    }
+
+    /**
+     * @param cell
+     * @return how much the cell's food grows by each step
+     */
+    int getRate(int cell) {
+        int k = cell >>> CellIndex.ChunkBits;
+        Chunk c = chunks[k];
+        if (isResident(c)) {
+            return c.rate[cell & CellIndex.ChunkMask];
+        }
+        if (c == Paged) {
+            try {
+                return store.get(k, size(k) + (cell & CellIndex.ChunkMask));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return plantedRate(cell);
+    }
+
+    /**
+     * Takes food out of a cell. A cell that has any food at all hands over as much as asked for,
+     * even when it holds less.
+     *
+     * @param cell
+     * @param n
+     * @return the food picked
+     */
+    int pick(int cell, int n) {
+        Chunk c = touch(cell);
+        int i = cell & CellIndex.ChunkMask;
+        catchUp(c, i, regrown);
+        int f = c.food[i];
+        if (f <= 0) {
+            return 0;
+        }
+        c.food[i] = f >= n ? f - n : 0;
+        return n;
+    }
+
+    /**
+     * Brings one cell's stored food up to date with every regrowth up to the given step's. A
+     * chunk that isn't in memory is left there, as its food is worked out when it is looked at.
+     *
+     * @param cell
+     * @param step
+     */
+    void catchUp(int cell, int step) {
+        Chunk c = chunks[cell >>> CellIndex.ChunkBits];
+        if (isResident(c)) {
+            catchUp(c, cell & CellIndex.ChunkMask, step);
+        }
+    }
+
+    private void catchUp(Chunk c, int i, int step) {
+        if (step > c.asOf[i]) {
+            c.food[i] = grow(c.food[i], c.rate[i], step - c.asOf[i], max);
+            c.asOf[i] = step;
+        }
+    }
+
+    /**
+     * Brings every stored cell's food up to date with the field's last regrowth.
+     */
+    void catchUp() {
+        for (Chunk c : chunks) {
+            if (isResident(c)) {
+                catchUp(c);
+            }
+        }
+    }
+
+    private void catchUp(Chunk c) {
+        int step = regrown;
+        int[] food = c.food;
+        int[] rate = c.rate;
+        int[] asOf = c.asOf;
+        int max = this.max;
+        for (int i = 0; i < food.length; i++) {
+            long grown = food[i] + (long) rate[i] * Math.max(0, step - asOf[i]);
+            food[i] = (int) Math.min(grown, max);
+            asOf[i] = step;
+        }
+    }
+
+    /**
+     * Pages out every chunk in memory that holds no neds and whose every cell is full.
+     *
+     * @param index where the neds are
+     * @return the number of chunks paged out
+     */
+    int pageOut(CellIndex index) {
+        int paged = 0;
+        for (int k = 0; k < chunks.length; k++) {
+            Chunk c = chunks[k];
+            int base = k << CellIndex.ChunkBits;
+            if (!isResident(c) || index.nextOccupied(base, base + c.food.length) >= 0 || !isFull(
+                c)) {
+                continue;
+            }
+            catchUp(c);
+            try {
+                if (store == null) {
+                    store = new ChunkStore(chunks.length, 3 * CellIndex.ChunkCells);
+                }
+                store.write(k, c.food, c.rate, c.asOf);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunks[k] = Paged;
+            changed.add(k);
+            paged++;
+        }
+        return paged;
+    }
+
+    private boolean isFull(Chunk c) {
+        for (int i = 0; i < c.food.length; i++) {
+            if (grow(c.food[i], c.rate[i], regrown - c.asOf[i], max) < max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo} writes
+     */
+    long bytes() {
+        return 8L * cells;
+    }
+
+    /**
+     * Writes every cell's food as of the last regrowth and its growth rate, cell by cell.
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        for (int k = 0; k < chunks.length; k++) {
+            int base = k << CellIndex.ChunkBits;
+            int n = size(k);
+            Chunk c = chunks[k];
+            if (c == Paged) {
+                c = new Chunk(new int[n], new int[n], new int[n]);
+                store.read(k, c.food, c.rate, c.asOf);
+            }
+            for (int i = 0; i < n; i++) {
+                out.putInt(getFood(c, base + i, regrown));
+                out.putInt(isResident(c) ? c.rate[i] : plantedRate(base + i));
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link #writeTo} wrote. Chunks that are full are paged straight out, so a field
+     * larger than memory can be read back.
+     */
+    void readFrom(SnapshotReader in, int step) throws IOException {
+        regrown = step;
+        for (int k = 0; k < chunks.length; k++) {
+            int base = k << CellIndex.ChunkBits;
+            int n = size(k);
+            Chunk c = new Chunk(new int[n], new int[n], new int[n]);
+            for (int i = 0; i < n; i++) {
+                c.food[i] = in.getInt();
+                c.rate[i] = in.getInt();
+                c.asOf[i] = step;
+            }
+            if (isFull(c)) {
+                if (store == null) {
+                    store = new ChunkStore(chunks.length, 3 * CellIndex.ChunkCells);
+                }
+                store.write(k, c.food, c.rate, c.asOf);
+                c = Paged;
+            }
+            chunks[k] = c;
+        }
+        changed.clear();
+    }
+
+    /**
+     * @return the number of cells in a chunk, which is less than a full chunk only at the end of
+     * the field
+     */
+    private int size(int chunk) {
+        return Math.min(CellIndex.ChunkCells, cells - (chunk << CellIndex.ChunkBits));
+    }
+
+    private int plantedFood(int cell) {
+        return random.nextInt(0, cell, CounterRng.Purpose.Food, max - min) + min;
+    }
+
+    /**
+     * @return a growth rate of 1% to 10% of the most a cell holds
+     */
+    private int plantedRate(int cell) {
+        return (int) (max * ((random.nextInt(0, cell, CounterRng.Purpose.FoodGrowth, 10) + 1) /
+            100.00));
+    }
+
+    /**
+     * Deletes the scratch file of paged out chunks, if there is one. The field can't be used
+     * afterwards.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    /**
+     * @return the food in a cell after it has grown for a number of steps
+     */
+    static int grow(int food, int rate, int steps, int max) {
+        if (steps <= 0) {
+            return food;
+        }
+        long grown = food + (long) rate * steps;
+        return grown > max ? max : (int) grown;
+    }
+}
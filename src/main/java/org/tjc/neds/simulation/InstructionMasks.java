@@ -0,0 +1,52 @@
+package org.tjc.neds.simulation;
+
+/**
+ * The instruction every ned ran in a step, as one bit per population slot in a mask per kind of
+ * instruction. Bit {@code slot & 63} of word {@code slot >>> 6} is set in {@link #move} if the ned
+ * in that slot moves, and likewise for the others; dead slots are clear in all of them.
+ *
+ * @author Thomas
+ */
+class InstructionMasks {
+
+    long[] turn = new long[0];
+    long[] move = new long[0];
+    long[] mate = new long[0];
+    long[] idle = new long[0];
+
+    /**
+     * Makes room for a population of the given number of slots.
+     *
+     * @param slots
+     */
+    void ensureCapacity(int slots) {
+        int words = words(slots);
+        if (turn.length < words) {
+            int n = words + (words >> 1);
+            turn = new long[n];
+            move = new long[n];
+            mate = new long[n];
+            idle = new long[n];
+        }
+    }
+
+    boolean isMove(int slot) {
+        return (move[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    boolean isMate(int slot) {
+        return (mate[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    static int words(int slots) {
+        return (slots + 63) >>> 6;
+    }
+
+    static long count(long[] mask, int slots) {
+        long n = 0;
+        for (int i = words(slots) - 1; i >= 0; i--) {
+            n += Long.bitCount(mask[i]);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,180 @@
+package org.tjc.neds.simulation;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads back a journal written by {@link EventJournal}, one record at a time. After
+ * {@link #next()} returns true the getters describe that record; fields the record doesn't carry
+ * read as zero.
+ *
+ * @author Thomas
+ */
+public class JournalReader implements Closeable {
+
+    public enum Type {
+        Birth,
+        Death,
+        Move,
+        Step
+    }
+
+    private final DataInputStream in;
+    private Type type;
+    private int step;
+    private long id;
+    private long male;
+    private long female;
+    private EventJournal.Cause cause;
+    private int age;
+    private int x;
+    private int y;
+    private int toX;
+    private int toY;
+    private int population;
+    private int births;
+    private int deaths;
+
+    public JournalReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != EventJournal.Magic) {
+            in.close();
+            throw new IOException("not an event journal: " + file);
+        }
+        int version = in.readInt();
+        if (version != EventJournal.Version) {
+            in.close();
+            throw new IOException("unsupported journal version: " + version);
+        }
+    }
+
+    /**
+     * @return true if another record was read, false at the end of the journal
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            return false;
+        }
+        id = male = female = 0;
+        age = x = y = toX = toY = population = births = deaths = 0;
+        cause = null;
+        try {
+            step = in.readInt();
+            switch (tag) {
+                case EventJournal.Birth:
+                    type = Type.Birth;
+                    id = in.readLong();
+                    male = in.readLong();
+                    female = in.readLong();
+                    x = in.readInt();
+                    y = in.readInt();
+                    break;
+                case EventJournal.Death:
+                    type = Type.Death;
+                    id = in.readLong();
+                    cause = EventJournal.Cause.values()[in.readByte()];
+                    age = in.readInt();
+                    x = in.readInt();
+                    y = in.readInt();
+                    break;
+                case EventJournal.Move:
+                    type = Type.Move;
+                    id = in.readLong();
+                    x = in.readInt();
+                    y = in.readInt();
+                    toX = in.readInt();
+                    toY = in.readInt();
+                    break;
+                case EventJournal.Step:
+                    type = Type.Step;
+                    population = in.readInt();
+                    births = in.readInt();
+                    deaths = in.readInt();
+                    break;
+                default:
+                    throw new IOException("corrupt journal, unknown record tag: " + tag);
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException("journal ends in the middle of a record", e);
+        }
+        return true;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return the ned born, died or moved
+     */
+    public long getId() {
+        return id;
+    }
+
+    public long getMale() {
+        return male;
+    }
+
+    public long getFemale() {
+        return female;
+    }
+
+    public EventJournal.Cause getCause() {
+        return cause;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    /**
+     * @return where the ned was born or died, or where it moved from
+     */
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getToX() {
+        return toX;
+    }
+
+    public int getToY() {
+        return toY;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    /**
+     * @return the simulation's total births at the end of the step
+     */
+    public int getBirths() {
+        return births;
+    }
+
+    public int getDeaths() {
+        return deaths;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
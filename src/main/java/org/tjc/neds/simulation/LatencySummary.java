@@ -0,0 +1,53 @@
+package org.tjc.neds.simulation;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A point-in-time reading of a latency histogram, in nanoseconds.
+ *
+ * @author Thomas
+ */
+public class LatencySummary {
+
+    private final long count;
+    private final long meanNanos;
+    private final long medianNanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    @ConstructorProperties({"count", "meanNanos", "medianNanos", "p99Nanos", "maxNanos"})
+    public LatencySummary(long count, long meanNanos, long medianNanos, long p99Nanos,
+        long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.medianNanos = medianNanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getMedianNanos() {
+        return medianNanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + count + ", mean: " + meanNanos + "ns, p50: " + medianNanos +
+            "ns, p99: " + p99Nanos + "ns, max: " + maxNanos + "ns";
+    }
+}
@@ -0,0 +1,117 @@
+package org.tjc.neds.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of long keys without boxing them. It is an open-addressed table with linear
+ * probing; a key whose count drops to zero is removed by shifting its successors back, so the
+ * table never fills up with tombstones.
+ *
+ * @author Thomas
+ */
+class LongCounts {
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    LongCounts() {
+        this(64);
+    }
+
+    LongCounts(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1);
+        keys = new long[n];
+        counts = new int[n];
+        mask = n - 1;
+    }
+
+    /**
+     * @return the number of distinct keys with a positive count
+     */
+    int size() {
+        return size;
+    }
+
+    int get(long key) {
+        for (int i = index(key); counts[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    void increment(long key) {
+        int i = index(key);
+        for (; counts[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                counts[i]++;
+                return;
+            }
+        }
+        keys[i] = key;
+        counts[i] = 1;
+        if (++size > (mask + 1) >> 1) {
+            resize();
+        }
+    }
+
+    void decrement(long key) {
+        int i = index(key);
+        for (; counts[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (--counts[i] == 0) {
+                    size--;
+                    shiftBack(i);
+                }
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * Closes the hole left at an emptied bucket by moving back any later entry of the same probe
+     * run that would otherwise become unreachable.
+     */
+    private void shiftBack(int hole) {
+        for (int i = (hole + 1) & mask; counts[i] != 0; i = (i + 1) & mask) {
+            int home = index(keys[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                counts[hole] = counts[i];
+                counts[i] = 0;
+                hole = i;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldCounts[j] != 0) {
+                int i = index(oldKeys[j]);
+                while (counts[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -1,518 +1,1125 @@
-package org.tjc.neds.simulation;
-
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.tjc.neds.Asserts;
-
-/**
- * @author thomascl
- *
- */
-public class Neds implements Runnable {
-
-    private static final Logger log = LoggerFactory.getLogger(Neds.class);
-    private final ReentrantLock lock = new ReentrantLock();
-
-    private final Map<Coordinate, Set<Ned>> nedMap;
-    private Patch[][] field;
-    private Ned oldestNed;
-    private final Dimensions dimension;
-    private final List<NedsEventListener> eventListeners;
-    private long delay;
-    private final AtomicInteger atomicPopulation;
-    private final AtomicInteger births;
-    private final AtomicInteger deaths;
-    private final Range<Integer> foodRange;
-    private int step;
-
-    public Neds(Dimensions d, int population, Range<Integer> foodRange, long delay) {
-        this.atomicPopulation = new AtomicInteger(population);
-        this.births = new AtomicInteger();
-        this.deaths = new AtomicInteger();
-        this.nedMap = new HashMap<>();
-        this.dimension = d;
-        this.delay = delay;
-        this.eventListeners = new LinkedList<>();
-        this.foodRange = foodRange;
-        populateField();
-    }
-
-    @Override
-    public void run() {
-        fireEvent("running");
-        try {
-            while (atomicPopulation.get() > 0) {
-                step();
-                fireEvent("step");
-                Thread.sleep(getDelay());
-            }
-        }
-        catch (InterruptedException e) {
-        }
-        fireEvent("stopped");
-    }
-
-    private void fireEvent(String event) {
-        eventListeners.stream().
-            forEach((listener) -> {
-                listener.handle(new NedsEvent(event));
-            });
-    }
-
-    public Ned getOldestNed() {
-        return oldestNed;
-    }
-
-    public int getBirths() {
-        return births.get();
-    }
-
-    public int getDeaths() {
-        return deaths.get();
-    }
-
-    public void step() {
-        lock.lock();
-        try {
-            step++;
-            if (atomicPopulation.get() > 0) {
-                Set<Ned> deadNeds = null;
-                Map<Ned, Coordinate> movedNeds = null;
-                LinkedList<Ned> males = null;
-                LinkedList<Ned> females = null;
-                Set<Coordinate> keys = nedMap.keySet();
-                for (Coordinate coord : keys) {
-                    Set<Ned> neds = nedMap.get(coord);
-                    for (Ned ned : neds) {
-                        if (ned.isAlive()) {
-                            if (oldestNed == null) {
-                                oldestNed = ned;
-                            }
-                            else {
-                                oldestNed = max(oldestNed, ned);
-                            }
-                            int instr = ned.next();
-                            switch (instr) {
-                                case 0:
-                                    ned.turnLeft();
-                                    break;
-                                case 1:
-                                    if (movedNeds == null) {
-                                        movedNeds = new HashMap<>();
-                                    }
-                                    ned.setPoint(null);
-                                    Coordinate old = new Coordinate(ned.getCoord().getX(), ned.
-                                        getCoord().getY());
-                                    movedNeds.put(ned, old);
-                                    break;
-                                case 2:
-                                    if (ned.isFemale()) {
-                                        if (females == null) {
-                                            females = new LinkedList<>();
-                                        }
-                                        females.add(ned);
-                                    }
-                                    else {
-                                        if (males == null) {
-                                            males = new LinkedList<>();
-                                        }
-                                        males.add(ned);
-                                    }
-                                    break;
-                            }
-                            ned.setAge(ned.getAge() + 1);
-                            Patch p = getPatch(ned.getCoord());
-                            if (!ned.eatFrom(p)) {
-                                if (deadNeds == null) {
-                                    deadNeds = new HashSet<>();
-                                }
-                                deadNeds.add(ned.kill());
-                            }
-                        }
-                    }
-                }
-
-                if (deadNeds != null) {
-                    cleanTheDead(deadNeds);
-                }
-
-                if (movedNeds != null) {
-                    Set<Ned> keySet = movedNeds.keySet();
-                    for (Ned ned : keySet) {
-                        if (ned.isAlive()) {
-                            Coordinate previous = movedNeds.get(ned);
-                            moveNed(ned, previous);
-                        }
-                    }
-                }
-
-                if (females != null && males != null) {
-                    mateNeds(females, males);
-                }
-                replantPatches();
-            }
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    private void mateNeds(LinkedList<Ned> females, LinkedList<Ned> males) {
-        List<Ned> dead = null;
-        lock.lock();
-        try {
-            for (Ned male : males) {
-                if (male.isAlive()) {
-                    if (!females.isEmpty()) {
-                        Ned female = females.remove();
-                        while (!female.isAlive() && !females.isEmpty()) {
-                            female = females.remove();
-                        }
-                        if (female.isAlive()) {
-                            Ned offspring = male.mate(getPatch(male), female);
-                            if (offspring != null) {
-                                births.incrementAndGet();
-                                add(offspring.getCoord(), offspring);
-                            }
-                            if (!male.isAlive()) {
-                                if (dead == null) {
-                                    dead = new LinkedList<>();
-                                }
-                                dead.add(male);
-                            }
-                            if (!female.isAlive()) {
-                                if (dead == null) {
-                                    dead = new LinkedList<>();
-                                }
-                                dead.add(female);
-                            }
-                        }
-                        else {
-                            break;
-                        }
-                    }
-                    else {
-                        break;
-                    }
-                }
-            }
-        }
-        finally {
-            lock.unlock();
-        }
-
-        if (dead != null) {
-            this.cleanTheDead(dead);
-        }
-    }
-
-    private Ned max(Ned n1, Ned n2) {
-        if (n1.getAge() > n2.getAge()) {
-            return n1;
-        }
-        else {
-            return n2;
-        }
-    }
-
-    public void addNedsEventListener(NedsEventListener nel) {
-        eventListeners.add(nel);
-    }
-
-    public int getPopulation() {
-        return atomicPopulation.get();
-    }
-
-    private void add(Coordinate c, Ned ned) {
-        if (ned != null && ned.isAlive()) {
-            lock.lock();
-            try {
-                Set<Ned> s = nedMap.get(c);
-                Asserts.assertTrue(!s.contains(ned), "" + ned + " already at " + c);
-                ned.setCoord(c);
-                s.add(ned);
-                atomicPopulation.getAndIncrement();
-            }
-            finally {
-                lock.unlock();
-            }
-        }
-    }
-
-    private void populateField() {
-        lock.lock();
-        try {
-            int w = dimension.getWidth();
-            int h = dimension.getHeight();
-            field = new Patch[h][w];
-            for (int y = 0; y < h; y++) {
-                for (int x = 0; x < w; x++) {
-                    field[x][y] = new Patch(foodRange, this, new Coordinate(x, y));
-                    Set<Ned> hs = new HashSet<>();
-                    nedMap.put(new Coordinate(x, y), hs);
-                }
-            }
-            for (int i = 0; i < atomicPopulation.get(); i++) {
-                Ned ned = new Ned();
-                Coordinate c = new Coordinate(Rng.getInstance().nextInt(w), Rng.getInstance().
-                    nextInt(h));
-                ned.setCoord(c);
-                nedMap.get(c).add(ned);
-            }
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    public Coordinate move(Ned ned, Dimensions d) {
-        int x = ned.getX();
-        int y = ned.getY();
-        switch (ned.getFacing()) {
-            case North:
-                y--;
-                break;
-            case NorthEast:
-                y--;
-                x++;
-                break;
-            case NorthWest:
-                y--;
-                x--;
-                break;
-            case South:
-                y++;
-                break;
-            case SouthEast:
-                y++;
-                x++;
-                break;
-            case SouthWest:
-                y++;
-                x--;
-                break;
-            case East:
-                x++;
-                break;
-            case West:
-                x--;
-                break;
-        }
-        Coordinate newCoord = new Coordinate(x, y);
-        d.updateCoordinates(newCoord, false);
-        return newCoord;
-    }
-
-    public void moveNed(Ned ned, Coordinate previous) {
-        lock.lock();
-        try {
-            Asserts.assertTrue(ned.isAlive(), " can't move a dead ned: " + ned);
-            Coordinate newCoord = move(ned, dimension);
-            if (!newCoord.equals(previous)) {
-                Set<Ned> o = nedMap.get(previous);
-                Asserts.assertTrue(o.contains(ned), "" + ned + " not at " + previous);
-
-                Set<Ned> n = nedMap.get(newCoord);
-                Asserts.assertTrue(!n.contains(ned), "" + ned + " already at " + newCoord);
-
-                o.remove(ned);
-                ned.setCoord(newCoord);
-                n.add(ned);
-
-                Asserts.assertTrue(n.contains(ned), "" + ned + " not in new patch");
-                Asserts.assertTrue(!o.contains(ned), "" + ned + " still in old patch");
-            }
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    private void replantPatches() {
-        int w = dimension.getWidth();
-        int h = dimension.getHeight();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                field[x][y].replant(step);
-            }
-        }
-    }
-
-    public int getMaleCount(Coordinate loc) {
-        return getNedCount(loc, 0);
-    }
-
-    public int getFemaleCount(Coordinate loc) {
-        return getNedCount(loc, 1);
-    }
-
-    public int getNedCount(Coordinate loc) {
-        Set<Ned> nedSet = getNeds(loc);
-        if (nedSet != null) {
-            return nedSet.size();
-        }
-        return 0;
-    }
-
-    private int getNedCount(Coordinate loc, int type) {
-        int count = 0;
-        lock.lock();
-        try {
-            Set<Ned> nedSet = getNeds(loc);
-            if (nedSet != null) {
-                for (Ned ned : nedSet) {
-                    if (type == 0) {
-                        if (ned.isMale()) {
-                            count++;
-                        }
-                    }
-                    else if (type == 1) {
-                        if (ned.isFemale()) {
-                            count++;
-                        }
-                    }
-                    else {
-                        count++;
-                    }
-                }
-            }
-        }
-        finally {
-            lock.unlock();
-        }
-        return count;
-    }
-
-    public Set<Ned> getNeds(Coordinate c) {
-        lock.lock();
-        try {
-            return nedMap.get(c);
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    /**
-     *
-     * @return
-     */
-    public Set<Ned> getAllNeds() {
-        lock.lock();
-        try {
-            Set<Ned> allNeds = new HashSet<>();
-            Set<Coordinate> coordinates = nedMap.keySet();
-            coordinates.stream().
-                forEach((c) -> {
-                    allNeds.addAll(nedMap.get(c));
-                });
-            return Collections.unmodifiableSet(allNeds);
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    public static long newSeed() {
-        Random r = new Random();
-        return r.nextLong();
-    }
-
-    public Dimensions getDimension() {
-        return dimension;
-    }
-
-    public Patch[][] getFields() {
-        return field;
-    }
-
-    public long getDelay() {
-        return delay;
-    }
-
-    public void setDelay(long delay) {
-        this.delay = delay;
-    }
-
-    private void cleanTheDead(Collection<Ned> deadNeds) {
-        lock.lock();
-        try {
-            deadNeds.stream().
-                map((ned) -> {
-                    Set<Ned> s = nedMap.get(ned.getCoord());
-                    Asserts.assertTrue(s.contains(ned), "can't delete " + ned + " from patch: " +
-                        ned.
-                        getCoord());
-                    s.remove(ned);
-                    Asserts.assertTrue(!s.contains(ned), "" + ned + " not removed from patch: " +
-                        ned.
-                        getCoord());
-                    return ned;
-                }).
-                map((_item) -> {
-                    atomicPopulation.getAndDecrement();
-                    return _item;
-                }).
-                forEach((_item) -> {
-                    deaths.getAndIncrement();
-                });
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    /**
-     *
-     */
-    public void resetNedPoint() {
-        lock.lock();
-        try {
-            Set<Ned> neds = getAllNeds();
-            neds.stream().
-                forEach((ned) -> {
-                    ned.setPoint(null);
-                });
-        }
-        finally {
-            lock.unlock();
-        }
-    }
-
-    public Patch getPatch(Ned ned) {
-        return getPatch(ned.getCoord());
-    }
-
-    public Patch getPatch(Coordinate c) {
-        return field[c.getX()][c.getY()];
-    }
-
-    private void dumpMap() {
-        log.debug("---------- Dump ----------");
-        Set<Coordinate> s = nedMap.keySet();
-        s.stream().
-            map((c) -> {
-                Set<Ned> ns = nedMap.get(c);
-                ns.stream().
-                forEach((ned) -> {
-                    log.debug("\tcoord: {}, {}", c, ned);
-                });
-                return c;
-            }).
-            forEach((_item) -> {
-                System.out.println();
-            });
-    }
-
-}
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tjc.neds.Asserts;
+
+/**
+ * @author thomascl
+ *
+ */
+public class Neds implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(Neds.class);
+    private final StepMetrics metrics = new StepMetrics();
+    private final ReentrantLock lock = new TimedLock(metrics.lockWait(), metrics.lockHold());
+
+    private static final int BlockSize = 4096;
+    /**
+     * How often, in steps, the field looks for cold chunks to page out.
+     */
+    private static final int PageInterval = 64;
+    /**
+     * The bytes a saved world starts with, before its field.
+     */
+    private static final int HeaderBytes = 52;
+    /**
+     * How far a step in each {@link Direction} goes across and down, by ordinal.
+     */
+    private static final int[] StepX = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final int[] StepY = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+    private final CellIndex cells;
+    private volatile WorldSnapshot snapshot;
+    private long version;
+    private Population population;
+    /**
+     * The population of a retired snapshot that nobody read, ready to be copied into.
+     */
+    private Population spare;
+    private final InstructionMasks masks = new InstructionMasks();
+    private final FoodField field;
+    private final PopulationStats stats = new PopulationStats();
+    private final Dimensions dimension;
+    private final NedsEventBus events = new NedsEventBus();
+    private long delay;
+    private final AtomicInteger atomicPopulation;
+    private final AtomicInteger births;
+    private final AtomicInteger deaths;
+    private final Range<Integer> foodRange;
+    private final int parallelism;
+    private final CounterRng random;
+    private final ForkJoinPool pool;
+    private final Stripe[] stripes;
+    private final IntList deadNeds = new IntList();
+    private final IntList movedNeds = new IntList();
+    private final IntList males = new IntList();
+    private final IntList females = new IntList();
+    private int step;
+    private final IntList mated = new IntList();
+    private final IntList entered = new IntList();
+    private final Partition partition;
+    private final IntList upward = new IntList();
+    private final IntList downward = new IntList();
+    private final IntList staying = new IntList();
+    private EventJournal journal;
+
+    public Neds(Dimensions d, int population, Range<Integer> foodRange, long delay) {
+        this(d, population, foodRange, delay, 1);
+    }
+
+    /**
+     * @param d
+     * @param population
+     * @param foodRange
+     * @param delay
+     * @param parallelism the number of threads that step the field. With 1 the simulation runs
+     * entirely on the calling thread. The outcome of a run does not depend on this value.
+     */
+    public Neds(Dimensions d, int population, Range<Integer> foodRange, long delay,
+        int parallelism) {
+        this(d, population, foodRange, delay, parallelism, Rng.getInstance().getSeed());
+    }
+
+    /**
+     * @param d
+     * @param population
+     * @param foodRange
+     * @param delay
+     * @param parallelism
+     * @param seed the world seed. Every random decision of the simulation is computed from it
+     * together with the step and the ned or cell concerned, so a seed always yields the same world.
+     */
+    public Neds(Dimensions d, int population, Range<Integer> foodRange, long delay,
+        int parallelism, long seed) {
+        this(d, population, foodRange, delay, parallelism, seed, null, true);
+    }
+
+    /**
+     * One band of a world that is split across several processes. Every band is built with the
+     * same arguments apart from its partition, and all of them are stepped together. Within a
+     * band, slots are in order of arrival rather than birth, so the oldest neds a band reports are
+     * the ones that have been in it longest. A band starts out with room for its share of the
+     * population by rows and grows from there.
+     *
+     * Bands are not a faster way of running the single world of the same seed: neds only find
+     * mates within their own band and newborns are numbered differently, so the runs part ways
+     * from the first birth. See {@link Partition}.
+     *
+     * @param d the size of the whole world
+     * @param population the starting population of the whole world, of which the band takes
+     * those that start out in it
+     * @param foodRange
+     * @param parallelism
+     * @param seed
+     * @param partition the band, linked to its neighbours
+     */
+    public Neds(Dimensions d, int population, Range<Integer> foodRange, int parallelism,
+        long seed, Partition partition) {
+        this(d, population, foodRange, 0, parallelism, seed, partition, true);
+    }
+
+    private Neds(Dimensions d, int population, Range<Integer> foodRange, long delay,
+        int parallelism, long seed, Partition partition, boolean populate) {
+        Asserts.assertTrue(parallelism > 0, "parallelism must be positive: " + parallelism);
+        this.atomicPopulation = new AtomicInteger(population);
+        this.births = new AtomicInteger();
+        this.deaths = new AtomicInteger();
+        this.random = new CounterRng(seed);
+        int capacity = partition == null ? population : (int) ((long) population *
+            (partition.getBottom() - partition.getTop()) / d.getHeight());
+        this.population = new Population(capacity, random);
+        this.dimension = d;
+        this.delay = delay;
+        this.foodRange = foodRange;
+        this.field = new FoodField(d, foodRange, random);
+        this.cells = new CellIndex(d, capacity);
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.partition = partition;
+        this.stripes = partition == null ? Stripe.split(d) : Stripe.split(partition.getTop(),
+            partition.getBottom());
+        if (populate) {
+            populateField();
+        }
+    }
+
+    /**
+     * Resumes a simulation from a snapshot written by {@link #save(Path)}. The restored world
+     * steps on exactly as the saved one would have.
+     *
+     * @param file
+     * @param delay
+     * @param parallelism
+     * @return the restored simulation
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static Neds restore(Path file, long delay, int parallelism) throws IOException {
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            if (in.getInt() != SnapshotWriter.Magic) {
+                throw new IOException("not a neds snapshot: " + file);
+            }
+            int version = in.getInt();
+            if (version != SnapshotWriter.Version) {
+                throw new IOException("unsupported snapshot version " + version + ": " + file);
+            }
+            Dimensions d = new Dimensions(in.getInt(), in.getInt());
+            Range<Integer> foodRange = new Range<>(in.getInt(), in.getInt());
+            long seed = in.getLong();
+            Neds neds = new Neds(d, 0, foodRange, delay, parallelism, seed, null, false);
+            neds.readFrom(in);
+            return neds;
+        }
+    }
+
+    /**
+     * Checkpoints the simulation to a compact binary snapshot: the dimensions, food range and
+     * seed, the step and birth/death counters, every patch's food and growth rate, every ned
+     * slot and the order of every cell's neds. The file is written through memory-mapped windows,
+     * so even very large worlds save at close to disk speed.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        Asserts.assertTrue(partition == null, "a partition of a world can't be saved on its own");
+        lock.lock();
+        try {
+            long size = HeaderBytes + field.bytes() + population.bytes() + cells.bytes(
+                population.size());
+            try (SnapshotWriter out = new SnapshotWriter(file, size)) {
+                out.putInt(SnapshotWriter.Magic);
+                out.putInt(SnapshotWriter.Version);
+                out.putInt(dimension.getWidth());
+                out.putInt(dimension.getHeight());
+                out.putInt(foodRange.getLow());
+                out.putInt(foodRange.getHigh());
+                out.putLong(random.getSeed());
+                out.putInt(step);
+                out.putInt(births.get());
+                out.putInt(deaths.get());
+                out.putInt(atomicPopulation.get());
+                out.putInt(snapshot.oldest());
+                field.writeTo(out);
+                population.writeTo(out);
+                cells.writeTo(out, population.size());
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void readFrom(SnapshotReader in) throws IOException {
+        step = in.getInt();
+        births.set(in.getInt());
+        deaths.set(in.getInt());
+        atomicPopulation.set(in.getInt());
+        in.getInt();
+        field.readFrom(in, step);
+        population.readFrom(in);
+        cells.readFrom(in, population.size());
+        for (int cell = cells.nextOccupied(0, cells.cells()); cell >= 0;
+            cell = cells.nextOccupied(cell + 1, cells.cells())) {
+            field.touch(cell);
+        }
+        stats.rebuild(step, population);
+        publish(allFood(), null);
+    }
+
+    /**
+     * Steps the simulation until all the neds die or the calling thread is interrupted, starting
+     * a step every delay milliseconds, or each straight after the last with no delay. The steps
+     * are run by a {@link StepScheduler} of their own while the calling thread waits; an interrupt
+     * stops them once the step under way is done, and this returns only then, with the thread's
+     * interrupt status set again.
+     */
+    @Override
+    public void run() {
+        StepScheduler scheduler = new StepScheduler(delay > 0 ? 1000.0 / delay :
+            StepScheduler.MaxSpeed);
+        scheduler.resume(this);
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    scheduler.awaitStopped(this);
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                    scheduler.pause();
+                }
+            }
+        }
+        finally {
+            scheduler.shutdown();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void fireEvent(NedsEvent.Type type) {
+        events.publish(new NedsEvent(this, type, snapshot));
+    }
+
+    /**
+     * The world as of the end of the last step. Reading it never waits on a running step, and
+     * everything read from the same snapshot is consistent.
+     *
+     * @return the last snapshot published
+     */
+    public WorldSnapshot getSnapshot() {
+        for (;;) {
+            WorldSnapshot world = snapshot;
+            if (world.observe()) {
+                return world;
+            }
+        }
+    }
+
+    /**
+     * @return the oldest living ned as of the end of the last step, or null if all have died
+     */
+    public Ned getOldestNed() {
+        return getSnapshot().getOldestNed();
+    }
+
+    /**
+     * @param k
+     * @return at most k of the oldest living neds as of the end of the last step, oldest first
+     */
+    public List<Ned> getOldestNeds(int k) {
+        return getSnapshot().getOldestNeds(k);
+    }
+
+    /**
+     * @return statistics of the population as of the end of the last step
+     */
+    public PopulationStats getStats() {
+        return snapshot.getStats();
+    }
+
+    /**
+     * @return timings of each phase of the step and of the simulation lock, and instruction
+     * counts, ready to be published with {@link StepMetrics#register(String)}
+     */
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getBirths() {
+        return snapshot.getBirths();
+    }
+
+    public int getDeaths() {
+        return snapshot.getDeaths();
+    }
+
+    /**
+     * Advances the simulation by one step, working on a copy of the population while readers keep
+     * seeing the last snapshot. Every step copies the whole population, O(N) in the number of
+     * slots. The copy is made into the population of the snapshot before when no reader ever
+     * claimed that one, squeezing out the dead slots when they have piled up, so an unwatched
+     * simulation allocates nothing for it; a watched simulation allocates and fills a whole new
+     * population every step. Then every ned's next instruction is decoded and run in blocks of
+     * slots, in parallel when a pool is available, leaving a bit mask per kind of instruction:
+     * turns are done there and then, and every ned ages. Next the field is cut into stripes of
+     * whole rows which are committed independently, visiting only the cells that hold neds, where
+     * each ned eats from its own patch and the movers and maters are picked out of the masks.
+     * Deaths, moves and matings are then committed serially in stripe order, so the result is the
+     * same whatever the parallelism. Finally a new snapshot is published to readers in one volatile
+     * write.
+     */
+    public void step() {
+        lock.lock();
+        try {
+            step++;
+            if (atomicPopulation.get() > 0 || partition != null) {
+                long start = System.nanoTime();
+                long t = start;
+                Population current = population;
+                if (current.needsCompaction()) {
+                    if (spare != null) {
+                        population = spare;
+                        spare = null;
+                        population.compactFrom(current);
+                    }
+                    else {
+                        population = current.compact();
+                    }
+                    cells.rebuild(population);
+                    stats.compacted();
+                }
+                else if (spare != null) {
+                    population = spare;
+                    spare = null;
+                    population.copyFrom(current);
+                }
+                else {
+                    population = current.copy();
+                }
+                population.setStep(step);
+                t = lap(StepMetrics.Phase.Copy, t);
+                masks.ensureCapacity(population.size());
+                forEachBlock(population.size(), this::executeBlock);
+                t = lap(StepMetrics.Phase.Decode, t);
+                forEachStripe(this::commitStripe);
+
+                deadNeds.clear();
+                movedNeds.clear();
+                males.clear();
+                females.clear();
+                for (Stripe stripe : stripes) {
+                    stats.fed(stripe.fed);
+                    deadNeds.addAll(stripe.dead);
+                    movedNeds.addAll(stripe.moved);
+                    males.addAll(stripe.males);
+                    females.addAll(stripe.females);
+                }
+
+                metrics.executed(InstructionMasks.count(masks.turn, population.size()),
+                    movedNeds.size(), males.size() + females.size(),
+                    InstructionMasks.count(masks.idle, population.size()));
+                metrics.starved(deadNeds.size());
+                t = lap(StepMetrics.Phase.Commit, t);
+
+                if (!deadNeds.isEmpty()) {
+                    cleanTheDead(deadNeds, EventJournal.Cause.Starved);
+                }
+                t = lap(StepMetrics.Phase.Deaths, t);
+
+                if (partition == null) {
+                    for (int i = 0; i < movedNeds.size(); i++) {
+                        int slot = movedNeds.get(i);
+                        if (population.isAlive(slot)) {
+                            moveNed(slot);
+                        }
+                    }
+                    t = lap(StepMetrics.Phase.Moves, t);
+                }
+                else {
+                    t = migrate(t);
+                }
+
+                if (!females.isEmpty() && !males.isEmpty()) {
+                    mateNeds(females, males);
+                }
+                t = lap(StepMetrics.Phase.Matings, t);
+                field.regrow(step);
+                if (step % PageInterval == 0) {
+                    field.pageOut(cells);
+                }
+                int[] changes = changedCells();
+                FoodField.Chunk[] food = publishFood(snapshot.food());
+                lap(StepMetrics.Phase.Food, t);
+                publish(food, changes);
+                metrics.stepped();
+                lap(StepMetrics.Phase.Step, start);
+                if (journal != null) {
+                    journal.endStep(step, atomicPopulation.get(), births.get(), deaths.get());
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the time since a phase started.
+     *
+     * @return now, which is when the next phase starts
+     */
+    private long lap(StepMetrics.Phase phase, long since) {
+        long now = System.nanoTime();
+        metrics.record(phase, now - since);
+        return now;
+    }
+
+    /**
+     * @param food
+     * @param changes the cells that changed since the last snapshot, or null if any may have
+     */
+    private void publish(FoodField.Chunk[] food, int[] changes) {
+        stats.endStep(step, population);
+        WorldSnapshot last = snapshot;
+        snapshot = new WorldSnapshot(++version, step, population, food, field, stats.getLive() > 0 ?
+            stats.getOldestSlot() : -1, births.get(), deaths.get(), stats.freeze(),
+            WorldSnapshot.history(last, changes));
+        if (last != null && last.retire() && last.population() != population) {
+            spare = last.population();
+        }
+    }
+
+    private void executeBlock(int index) {
+        population.execute(index * BlockSize, Math.min(population.size(), (index + 1) * BlockSize),
+            masks);
+    }
+
+    private void commitStripe(int index) {
+        Stripe stripe = stripes[index];
+        stripe.clear();
+        int w = cells.getWidth();
+        int end = stripe.bottom * w;
+        for (int cell = cells.nextOccupied(stripe.top * w, end); cell >= 0;
+            cell = cells.nextOccupied(cell + 1, end)) {
+            stripe.eaten.add(cell);
+            for (int slot = cells.first(cell); slot >= 0; slot = cells.next(slot)) {
+                if (masks.isMove(slot)) {
+                    stripe.moved.add(slot);
+                }
+                else if (masks.isMate(slot)) {
+                    if (population.isMale(slot)) {
+                        stripe.males.add(slot);
+                    }
+                    else {
+                        stripe.females.add(slot);
+                    }
+                }
+                int sack = population.getFoodSack(slot);
+                if (!population.eatFrom(slot, field, cell)) {
+                    stripe.dead.add(slot);
+                }
+                else {
+                    stripe.fed += population.getFoodSack(slot) - sack;
+                }
+            }
+        }
+    }
+
+    private void forEachStripe(IntConsumer work) {
+        forEach(stripes.length, work);
+    }
+
+    private void forEachBlock(int slots, IntConsumer work) {
+        forEach((slots + BlockSize - 1) / BlockSize, work);
+    }
+
+    private void forEach(int units, IntConsumer work) {
+        if (pool == null || units < 2) {
+            for (int i = 0; i < units; i++) {
+                work.accept(i);
+            }
+        }
+        else {
+            pool.invoke(new SplitAction(0, units, work));
+        }
+    }
+
+    private void mateNeds(IntList females, IntList males) {
+        IntList dead = null;
+        lock.lock();
+        try {
+            int nextFemale = 0;
+            for (int i = 0; i < males.size(); i++) {
+                int male = males.get(i);
+                if (population.isAlive(male)) {
+                    if (nextFemale < females.size()) {
+                        int female = females.get(nextFemale++);
+                        while (!population.isAlive(female) && nextFemale < females.size()) {
+                            female = females.get(nextFemale++);
+                        }
+                        if (population.isAlive(female)) {
+                            int cell = cells.cellOf(population.getX(male),
+                                population.getY(male));
+                            mated.add(cell);
+                            int sacks = population.getFoodSack(male) +
+                                population.getFoodSack(female);
+                            int offspring = population.mate(male, field, cell, female);
+                            stats.fed(population.getFoodSack(male) +
+                                population.getFoodSack(female) - sacks);
+                            if (offspring >= 0) {
+                                births.incrementAndGet();
+                                add(offspring);
+                                stats.born(step, population.getDna(offspring),
+                                    population.getSex(offspring),
+                                    population.getFoodSack(offspring));
+                                if (journal != null) {
+                                    journal.birth(step, population.getId(offspring),
+                                        population.getId(male), population.getId(female),
+                                        population.getX(offspring), population.getY(offspring));
+                                }
+                            }
+                            if (!population.isAlive(male)) {
+                                if (dead == null) {
+                                    dead = new IntList();
+                                }
+                                dead.add(male);
+                            }
+                            if (!population.isAlive(female)) {
+                                if (dead == null) {
+                                    dead = new IntList();
+                                }
+                                dead.add(female);
+                            }
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    else {
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (dead != null) {
+            this.cleanTheDead(dead, EventJournal.Cause.Mating);
+        }
+    }
+
+    /**
+     * Adds a listener whose step events are coalesced when it falls behind.
+     *
+     * @param nel
+     */
+    public void addNedsEventListener(NedsEventListener nel) {
+        addNedsEventListener(nel, NedsEventListener.Delivery.Coalesce);
+    }
+
+    /**
+     * Adds a listener, to be called on a thread of its own. The simulation never waits for its
+     * listeners; what happens to the events of one that falls behind is up to its delivery.
+     *
+     * @param nel
+     * @param delivery
+     */
+    public void addNedsEventListener(NedsEventListener nel, NedsEventListener.Delivery delivery) {
+        events.subscribe(nel, delivery);
+    }
+
+    public void removeNedsEventListener(NedsEventListener nel) {
+        events.unsubscribe(nel);
+    }
+
+    /**
+     * @return the number of events listeners have missed, dropped or coalesced into later ones,
+     * since they were added
+     */
+    public long getDroppedEvents() {
+        return events.getDropped();
+    }
+
+    /**
+     * @return the number of live neds as of the end of the last step
+     */
+    public int getPopulation() {
+        return snapshot.getPopulation();
+    }
+
+    private void add(int slot) {
+        lock.lock();
+        try {
+            int cell = cells.cellOf(population.getX(slot), population.getY(slot));
+            field.touch(cell);
+            cells.add(cell, slot);
+            entered.add(cell);
+            atomicPopulation.getAndIncrement();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void populateField() {
+        lock.lock();
+        try {
+            int w = dimension.getWidth();
+            int h = dimension.getHeight();
+            int n = atomicPopulation.get();
+            int live = 0;
+            for (int i = 0; i < n; i++) {
+                long dna = random.nextLong(0, i, CounterRng.Purpose.Dna);
+                char sex = random.nextBoolean(0, i, CounterRng.Purpose.Sex) ? 'm' : 'f';
+                int facing = random.nextInt(0, i, CounterRng.Purpose.Facing, 8);
+                int x = random.nextInt(0, i, CounterRng.Purpose.X, w);
+                int y = random.nextInt(0, i, CounterRng.Purpose.Y, h);
+                if (partition != null && !partition.owns(y)) {
+                    continue;
+                }
+                int slot = population.add(i, dna, dna, sex, facing, x, y);
+                int cell = cells.cellOf(x, y);
+                field.touch(cell);
+                cells.add(cell, slot);
+                stats.born(0, dna, sex, 0);
+                live++;
+            }
+            if (partition == null) {
+                population.numberFrom(n, 1);
+            }
+            else {
+                population.numberFrom(n + partition.getIndex(), partition.getCount());
+            }
+            atomicPopulation.set(live);
+            publish(allFood(), null);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Coordinate move(Ned ned, Dimensions d) {
+        int x = ned.getX();
+        int y = ned.getY();
+        switch (ned.getFacing()) {
+            case North:
+                y--;
+                break;
+            case NorthEast:
+                y--;
+                x++;
+                break;
+            case NorthWest:
+                y--;
+                x--;
+                break;
+            case South:
+                y++;
+                break;
+            case SouthEast:
+                y++;
+                x++;
+                break;
+            case SouthWest:
+                y++;
+                x--;
+                break;
+            case East:
+                x++;
+                break;
+            case West:
+                x--;
+                break;
+        }
+        Coordinate newCoord = new Coordinate(x, y);
+        d.updateCoordinates(newCoord, false);
+        return newCoord;
+    }
+
+    /**
+     * Moves a ned outside of a step. The ned is moved in place, in the population of the last
+     * snapshot, so this is only for benchmarks driving a simulation that nobody is reading, and
+     * isn't open to readers, who must never see a published snapshot change.
+     *
+     * @param ned
+     * @param previous
+     */
+    void moveNed(Ned ned, Coordinate previous) {
+        lock.lock();
+        try {
+            Asserts.assertTrue(ned.isAlive(), " can't move a dead ned: " + ned);
+            moveNed(ned.getSlot(), previous.getX(), previous.getY());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void moveNed(int slot) {
+        moveNed(slot, population.getX(slot), population.getY(slot));
+    }
+
+    /**
+     * Moves the neds of a partition's band. Those that step out of the band are handed to the
+     * neighbouring bands, and those the neighbours hand over are placed: the ones from above
+     * before the band's own moves and the ones from below after them.
+     *
+     * @return now, which is when the next phase starts
+     */
+    private long migrate(long t) {
+        upward.clear();
+        downward.clear();
+        staying.clear();
+        for (int i = 0; i < movedNeds.size(); i++) {
+            int slot = movedNeds.get(i);
+            if (!population.isAlive(slot)) {
+                continue;
+            }
+            int y = nextY(slot);
+            if (partition.owns(y)) {
+                staying.add(slot);
+                continue;
+            }
+            int x = nextX(slot);
+            int px = population.getX(slot);
+            int py = population.getY(slot);
+            if (journal != null) {
+                journal.move(step, population.getId(slot), px, py, x, y);
+            }
+            stats.left(step, population.getAge(slot), population.getDna(slot),
+                population.getSex(slot), population.getFoodSack(slot));
+            population.kill(slot);
+            cells.remove(cells.cellOf(px, py), slot);
+            atomicPopulation.getAndDecrement();
+            population.setLocation(slot, x, y);
+            (y < partition.getTop() ? upward : downward).add(slot);
+        }
+        long sent = System.nanoTime();
+        try {
+            partition.exchange(step, population, upward, downward);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long received = System.nanoTime();
+        metrics.record(StepMetrics.Phase.Exchange, received - sent);
+        arrive(partition.fromAbove());
+        for (int i = 0; i < staying.size(); i++) {
+            moveNed(staying.get(i));
+        }
+        arrive(partition.fromBelow());
+        long now = System.nanoTime();
+        metrics.record(StepMetrics.Phase.Moves, (sent - t) + (now - received));
+        return now;
+    }
+
+    private void arrive(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            int slot = population.readNed(in);
+            int cell = cells.cellOf(population.getX(slot), population.getY(slot));
+            field.touch(cell);
+            cells.add(cell, slot);
+            entered.add(cell);
+            stats.arrived(step, population.getAge(slot), population.getDna(slot),
+                population.getSex(slot), population.getFoodSack(slot));
+            atomicPopulation.getAndIncrement();
+        }
+    }
+
+    private void moveNed(int slot, int px, int py) {
+        int x = nextX(slot);
+        int y = nextY(slot);
+        if (x != px || y != py) {
+            int o = cells.cellOf(px, py);
+            int n = cells.cellOf(x, y);
+            field.touch(n);
+            cells.move(o, n, slot);
+            entered.add(n);
+            population.setLocation(slot, x, y);
+            if (journal != null) {
+                journal.move(step, population.getId(slot), px, py, x, y);
+            }
+        }
+    }
+
+    /**
+     * @return the column a ned moves to, going the way it faces and stopping at the edge, as
+     * {@link #move} does but without making a view and a coordinate for every move
+     */
+    private int nextX(int slot) {
+        int x = population.getX(slot) + StepX[population.getFacing(slot).ordinal()];
+        return Math.max(0, Math.min(x, dimension.getWidth() - 1));
+    }
+
+    /**
+     * @return the row a ned moves to
+     */
+    private int nextY(int slot) {
+        int y = population.getY(slot) + StepY[population.getFacing(slot).ordinal()];
+        return Math.max(0, Math.min(y, dimension.getHeight() - 1));
+    }
+
+    /**
+     * The cells whose food or neds changed in this step: every cell that held a ned when the step
+     * began, since its neds ate, aged or died there, and every cell a ned moved, migrated or was
+     * born into. A cell may be listed more than once. Food that only grew back is not listed.
+     */
+    private int[] changedCells() {
+        IntList changes = new IntList(entered.size() + mated.size());
+        for (Stripe stripe : stripes) {
+            changes.addAll(stripe.eaten);
+        }
+        changes.addAll(mated);
+        changes.addAll(entered);
+        entered.clear();
+        return changes.toArray();
+    }
+
+    /**
+     * The food of the new snapshot. Chunks are copied on write: the new snapshot shares every
+     * chunk with the last one but those that came into memory or were paged out in this step, and
+     * those holding a patch that was eaten from, of which it takes fresh copies.
+     *
+     * @param before the food of the last snapshot
+     */
+    private FoodField.Chunk[] publishFood(FoodField.Chunk[] before) {
+        FoodField.Chunk[] food = before.clone();
+        IntList changed = field.changed();
+        for (int i = 0; i < changed.size(); i++) {
+            int k = changed.get(i);
+            food[k] = copyOf(field.chunk(k));
+        }
+        changed.clear();
+        for (Stripe stripe : stripes) {
+            publishFood(before, food, stripe.eaten);
+        }
+        publishFood(before, food, mated);
+        mated.clear();
+        return food;
+    }
+
+    private void publishFood(FoodField.Chunk[] before, FoodField.Chunk[] food, IntList eaten) {
+        for (int i = 0; i < eaten.size(); i++) {
+            int k = eaten.get(i) >>> CellIndex.ChunkBits;
+            if (food[k] == before[k] && FoodField.isResident(food[k])) {
+                food[k] = field.chunk(k).copy();
+            }
+        }
+    }
+
+    private FoodField.Chunk[] allFood() {
+        FoodField.Chunk[] food = new FoodField.Chunk[FoodField.chunks(dimension)];
+        for (int k = 0; k < food.length; k++) {
+            food[k] = copyOf(field.chunk(k));
+        }
+        field.changed().clear();
+        return food;
+    }
+
+    private static FoodField.Chunk copyOf(FoodField.Chunk c) {
+        return FoodField.isResident(c) ? c.copy() : c;
+    }
+
+    public int getMaleCount(Coordinate loc) {
+        return getSnapshot().getMaleCount(loc);
+    }
+
+    public int getFemaleCount(Coordinate loc) {
+        return getSnapshot().getFemaleCount(loc);
+    }
+
+    public int getNedCount(Coordinate loc) {
+        return getSnapshot().getNedCount(loc);
+    }
+
+    /**
+     * @param c
+     * @return the live neds on a patch as of the end of the last step
+     */
+    public List<Ned> getNeds(Coordinate c) {
+        return getSnapshot().getNeds(c);
+    }
+
+    /**
+     * @return every live ned as of the end of the last step
+     */
+    public List<Ned> getAllNeds() {
+        return getSnapshot().getNeds();
+    }
+
+    /**
+     * @param c
+     * @return the food left on the patch at the end of the last step
+     */
+    public int getFood(Coordinate c) {
+        return snapshot.getFood(c);
+    }
+
+    /**
+     * @param c
+     * @return the food left on the patch at the end of the last step, as a percentage of the
+     * most a patch can hold
+     */
+    public double getPercentRemainingFood(Coordinate c) {
+        return snapshot.getPercentRemainingFood(c);
+    }
+
+    /**
+     * @return the last step published to readers
+     */
+    public int getStep() {
+        return snapshot.getStep();
+    }
+
+    public static long newSeed() {
+        Random r = new Random();
+        return r.nextLong();
+    }
+
+    public CounterRng getRandom() {
+        return random;
+    }
+
+    public long getSeed() {
+        return random.getSeed();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Releases the worker threads of a parallel simulation and the threads of its listeners, once
+     * they have handled the events waiting for them, and deletes the scratch file of food paged
+     * out to disk. Every simulation must be shut down once done with, even one that was only
+     * stepped by hand.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        events.close();
+        lock.lock();
+        try {
+            field.close();
+        }
+        catch (IOException e) {
+            log.warn("could not close the chunk store", e);
+        }
+        finally {
+            lock.unlock();
+        }
+        if (partition != null) {
+            try {
+                partition.close();
+            }
+            catch (IOException e) {
+                log.warn("could not close the links to the neighbouring partitions", e);
+            }
+        }
+    }
+
+    public Dimensions getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the band of the world this simulation runs, or null if it runs the whole world
+     */
+    public Partition getPartition() {
+        return partition;
+    }
+
+    public Patch[][] getFields() {
+        Patch[][] patches = new Patch[dimension.getWidth()][dimension.getHeight()];
+        for (int x = 0; x < patches.length; x++) {
+            for (int y = 0; y < patches[x].length; y++) {
+                patches[x][y] = getPatch(x, y);
+            }
+        }
+        return patches;
+    }
+
+    /**
+     * @return milliseconds from the start of one step to the start of the next when the
+     * simulation is {@link #run()}, or 0 to run flat out
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Starts recording every birth, death and move into a journal, or stops when given null. The
+     * journal stays open; closing it is up to the caller once the simulation has stopped.
+     *
+     * @param journal
+     */
+    public void setJournal(EventJournal journal) {
+        lock.lock();
+        try {
+            this.journal = journal;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    private void cleanTheDead(IntList deadNeds, EventJournal.Cause cause) {
+        lock.lock();
+        try {
+            for (int i = 0; i < deadNeds.size(); i++) {
+                int slot = deadNeds.get(i);
+                if (journal != null) {
+                    journal.death(step, population.getId(slot), cause, population.getAge(slot),
+                        population.getX(slot), population.getY(slot));
+                }
+                stats.died(step, population.getAge(slot), population.getDna(slot),
+                    population.getSex(slot), population.getFoodSack(slot));
+                population.kill(slot);
+                int cell = cells.cellOf(population.getX(slot), population.getY(slot));
+                cells.remove(cell, slot);
+                atomicPopulation.getAndDecrement();
+                deaths.getAndIncrement();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Patch getPatch(Ned ned) {
+        return getPatch(ned.getCoord());
+    }
+
+    public Patch getPatch(Coordinate c) {
+        return getPatch(c.getX(), c.getY());
+    }
+
+    private Patch getPatch(int x, int y) {
+        return new Patch(field, cells.cellOf(x, y));
+    }
+
+    /**
+     * Splits a range of work units, such as stripes, in halves until each task holds a single unit.
+     */
+    private static final class SplitAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 3169021893657349027L;
+        private final int lo;
+        private final int hi;
+        private final IntConsumer work;
+
+        SplitAction(int lo, int hi, IntConsumer work) {
+            this.lo = lo;
+            this.hi = hi;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                work.accept(lo);
+            }
+            else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SplitAction(lo, mid, work), new SplitAction(mid, hi, work));
+            }
+        }
+    }
+
+    private void dumpMap() {
+        log.debug("---------- Dump ----------");
+        for (int cell = cells.nextOccupied(0, cells.cells()); cell >= 0;
+            cell = cells.nextOccupied(cell + 1, cells.cells())) {
+            for (int slot = cells.first(cell); slot >= 0; slot = cells.next(slot)) {
+                log.debug("\tcell: {}, {}", cell, population.view(slot));
+            }
+        }
+    }
+
+}
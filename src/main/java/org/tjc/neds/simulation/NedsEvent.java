@@ -2,13 +2,68 @@ package org.tjc.neds.simulation;
 
 import java.util.EventObject;
 
+/**
+ * Something that happened to a running simulation, with a summary of the step it happened at.
+ * Events are small so that queueing them for a slow listener costs little; the world itself is
+ * read from {@link Neds#getSnapshot()}.
+ *
+ * @author Thomas
+ */
 public class NedsEvent extends EventObject {
+
     private static final long serialVersionUID = -5312961037595588543L;
-    public NedsEvent(String event) {
-        super(event);
+
+    public enum Type {
+        /** The simulation started running. */
+        Started,
+        /** A step was completed. */
+        Step,
+        /** The simulation stopped running, because it was interrupted or all the neds died. */
+        Stopped
+    }
+
+    private final Type type;
+    private final int step;
+    private final int births;
+    private final int deaths;
+    private final int population;
+
+    NedsEvent(Neds source, Type type, WorldSnapshot world) {
+        super(source);
+        this.type = type;
+        this.step = world.getStep();
+        this.births = world.getBirths();
+        this.deaths = world.getDeaths();
+        this.population = world.getPopulation();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Neds getNeds() {
+        return (Neds) getSource();
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getBirths() {
+        return births;
+    }
+
+    public int getDeaths() {
+        return deaths;
+    }
+
+    public int getPopulation() {
+        return population;
     }
 
-    public String getEvent() {
-        return (String)getSource();
+    @Override
+    public String toString() {
+        return type + " step: " + getStep() + ", births: " + getBirths() + ", deaths: " +
+            getDeaths() + ", population: " + getPopulation();
     }
 }
@@ -0,0 +1,221 @@
+package org.tjc.neds.simulation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands a simulation's events to its listeners without ever waiting for them. Every listener has
+ * a small ring of events of its own and a thread that takes them off it and calls the listener.
+ * Publishing an event only puts it on each ring; when a ring is full, the listener's
+ * {@link NedsEventListener.Delivery} decides which step event gives way.
+ *
+ * @author Thomas
+ */
+final class NedsEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(NedsEventBus.class);
+    private static final int Capacity = 64;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    void subscribe(NedsEventListener listener, NedsEventListener.Delivery delivery) {
+        Subscription s = new Subscription(listener, delivery);
+        subscriptions.add(s);
+        s.thread.start();
+    }
+
+    /**
+     * Stops calling a listener. Events already waiting for it are still handed over.
+     *
+     * @param listener
+     */
+    void unsubscribe(NedsEventListener listener) {
+        for (Subscription s : subscriptions) {
+            if (s.listener == listener) {
+                subscriptions.remove(s);
+                s.close();
+            }
+        }
+    }
+
+    void publish(NedsEvent event) {
+        for (Subscription s : subscriptions) {
+            s.offer(event);
+        }
+    }
+
+    /**
+     * @return the number of events dropped or coalesced away, over all listeners
+     */
+    long getDropped() {
+        long dropped = 0;
+        for (Subscription s : subscriptions) {
+            dropped += s.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * Stops calling every listener once it has handled the events waiting for it.
+     */
+    void close() {
+        for (Subscription s : subscriptions) {
+            subscriptions.remove(s);
+            s.close();
+        }
+    }
+
+    /**
+     * One listener's ring of events and the thread that empties it.
+     */
+    private static final class Subscription implements Runnable {
+
+        final NedsEventListener listener;
+        final NedsEventListener.Delivery delivery;
+        final Thread thread;
+        private final NedsEvent[] ring = new NedsEvent[Capacity];
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private int head;
+        private int count;
+        private long dropped;
+        private boolean closed;
+
+        Subscription(NedsEventListener listener, NedsEventListener.Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+            this.thread = new Thread(this, "neds-events-" + listener.getClass().getSimpleName());
+            thread.setDaemon(true);
+        }
+
+        void offer(NedsEvent event) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                boolean step = event.getType() == NedsEvent.Type.Step;
+                if (step && delivery == NedsEventListener.Delivery.Coalesce && count > 0 &&
+                    at(count - 1).getType() == NedsEvent.Type.Step) {
+                    ring[index(count - 1)] = event;
+                    dropped++;
+                    return;
+                }
+                if (count == ring.length) {
+                    if (step && delivery == NedsEventListener.Delivery.DropNewest ||
+                        !evict(step)) {
+                        dropped++;
+                        return;
+                    }
+                }
+                ring[index(count++)] = event;
+                ready.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops the oldest step event waiting. If none is waiting, the oldest event is dropped
+         * instead, but only to make room for an event that isn't a step: a step never pushes out
+         * a start or a stop.
+         *
+         * @param forStep whether the room is wanted for a step event
+         * @return whether an event was dropped
+         */
+        private boolean evict(boolean forStep) {
+            int i = 0;
+            while (i < count && at(i).getType() != NedsEvent.Type.Step) {
+                i++;
+            }
+            if (i == count) {
+                if (forStep) {
+                    return false;
+                }
+                i = 0;
+            }
+            for (; i > 0; i--) {
+                ring[index(i)] = at(i - 1);
+            }
+            ring[head] = null;
+            head = index(1);
+            count--;
+            dropped++;
+            return true;
+        }
+
+        private NedsEvent at(int i) {
+            return ring[index(i)];
+        }
+
+        private int index(int i) {
+            return (head + i) % ring.length;
+        }
+
+        /**
+         * @return the next event, or null once the subscription is closed and nothing is waiting
+         */
+        private NedsEvent take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (count == 0 && !closed) {
+                    ready.await();
+                }
+                if (count == 0) {
+                    return null;
+                }
+                NedsEvent event = ring[head];
+                ring[head] = null;
+                head = index(1);
+                count--;
+                return event;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        long getDropped() {
+            lock.lock();
+            try {
+                return dropped;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                ready.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (NedsEvent event = take(); event != null; event = take()) {
+                    try {
+                        listener.handle(event);
+                    }
+                    catch (RuntimeException e) {
+                        log.error("event listener failed on " + event, e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,11 +1,30 @@
 package org.tjc.neds.simulation;
 
 /**
+ * Hears about a simulation's events. Each listener is called on a thread of its own, never on the
+ * thread stepping the simulation, and in the order the events happened.
  *
  * @author Thomas
  */
 public interface NedsEventListener {
 
+    /**
+     * What happens to a listener's events when it falls behind and its queue fills up. Whatever
+     * the policy, {@link NedsEvent.Type#Started} and {@link NedsEvent.Type#Stopped} are never
+     * dropped for step events.
+     */
+    enum Delivery {
+        /**
+         * A step event waiting to be handled is replaced by the next one, so a slow listener
+         * handles the latest step it can keep up with.
+         */
+        Coalesce,
+        /** The oldest step event waiting is dropped to make room. */
+        DropOldest,
+        /** A step event that doesn't fit is dropped. */
+        DropNewest
+    }
+
     /**
      *
      * @param event
@@ -0,0 +1,344 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One band of a world that is split across several processes. Every process runs a {@link Neds}
+ * over the whole field but holds only the neds in its own band, so, with the field kept in chunks,
+ * its memory follows its band. A band is a run of whole stripes and bands are numbered from the
+ * top.
+ *
+ * A ned that steps out of its band is handed over to the band it steps into. Nothing else crosses
+ * a band edge: a ned's step reads nothing but its own patch, and the field does not wrap, so there
+ * are no border cells to share. Neighbouring bands are linked by a socket on the loopback
+ * interface; band i listens on {@code port + i} for the band above it and connects to the band
+ * below. Every step each band sends its neighbours the neds leaving towards them, possibly none,
+ * and waits for theirs, which keeps all bands in lockstep.
+ *
+ * Neds that arrive from above are placed before the band's own moves and neds that arrive from
+ * below after them, and newborns are numbered from an id space shared out between the bands, so a
+ * partitioned run is repeatable for a given number of partitions.
+ *
+ * A partitioned world is a different model from the single world of the same seed, not a
+ * distributed run of it. Neds only find mates within their own band, so two neds either side of a
+ * band edge never mate; newborns get different ids, and the ids feed the random decisions; and
+ * neds that cross an edge are slotted in a different order. The two runs therefore part ways from
+ * the first birth, and so do runs of the same seed with different numbers of bands. Only runs with
+ * the same seed and the same number of bands can be compared.
+ *
+ * @author Thomas
+ */
+public final class Partition implements Closeable {
+
+    private static final int Magic = 0x4E454450;
+    private static final int Header = 8;
+    private static final long ConnectTimeout = TimeUnit.SECONDS.toNanos(30);
+
+    private final int index;
+    private final int count;
+    private final int top;
+    private final int bottom;
+    private final Selector selector;
+    private final Link up;
+    private final Link down;
+
+    private Partition(Dimensions d, int index, int count, SocketChannel up, SocketChannel down)
+        throws IOException {
+        int stripes = Stripe.count(d.getHeight());
+        this.index = index;
+        this.count = count;
+        this.top = Math.min(d.getHeight(), Stripe.Rows * (int) ((long) index * stripes / count));
+        this.bottom = Math.min(d.getHeight(), Stripe.Rows * (int) ((long) (index + 1) * stripes /
+            count));
+        this.selector = Selector.open();
+        this.up = up != null ? new Link(up, index - 1, selector) : null;
+        this.down = down != null ? new Link(down, index + 1, selector) : null;
+    }
+
+    /**
+     * Takes up a band of a world, linking it to its neighbours. Every band of the world must be
+     * started within a short while of the others.
+     *
+     * @param d the size of the whole world
+     * @param index which band this is, from 0 at the top
+     * @param count the number of bands
+     * @param port the port of band 0; band i uses {@code port + i}
+     * @return the band, linked to its neighbours
+     * @throws IOException if a neighbour can't be reached or isn't part of the same world
+     */
+    public static Partition connect(Dimensions d, int index, int count, int port)
+        throws IOException {
+        int stripes = Stripe.count(d.getHeight());
+        if (count < 2 || count > stripes) {
+            throw new IllegalArgumentException("a " + d.getHeight() + " row world splits into 2 " +
+                "to " + stripes + " partitions, not " + count);
+        }
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("no partition " + index + " of " + count);
+        }
+        ServerSocketChannel server = null;
+        SocketChannel up = null;
+        SocketChannel down = null;
+        try {
+            if (index > 0) {
+                server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + index));
+            }
+            if (index < count - 1) {
+                down = dial(port + index + 1);
+                hello(down, index, count, d);
+            }
+            if (server != null) {
+                up = server.accept();
+                up.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                expect(up, index - 1, count, d);
+            }
+            return new Partition(d, index, count, up, down);
+        }
+        catch (IOException | RuntimeException e) {
+            if (up != null) {
+                up.close();
+            }
+            if (down != null) {
+                down.close();
+            }
+            throw e;
+        }
+        finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static SocketChannel dial(int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        long deadline = System.nanoTime() + ConnectTimeout;
+        while (true) {
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                return channel;
+            }
+            catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new ConnectException("no partition listening on port " + port);
+                }
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted connecting to port " + port);
+                }
+            }
+        }
+    }
+
+    private static void hello(SocketChannel channel, int index, int count, Dimensions d)
+        throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(20);
+        hello.putInt(Magic).putInt(index).putInt(count).putInt(d.getWidth()).putInt(d.getHeight());
+        hello.flip();
+        while (hello.hasRemaining()) {
+            channel.write(hello);
+        }
+    }
+
+    private static void expect(SocketChannel channel, int index, int count, Dimensions d)
+        throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(20);
+        while (hello.hasRemaining()) {
+            if (channel.read(hello) < 0) {
+                throw new EOFException("partition " + index + " hung up");
+            }
+        }
+        hello.flip();
+        if (hello.getInt() != Magic || hello.getInt() != index || hello.getInt() != count ||
+            hello.getInt() != d.getWidth() || hello.getInt() != d.getHeight()) {
+            throw new IOException("partition " + index + " is not part of the same world");
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first row of the band
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * @return the row after the last row of the band
+     */
+    public int getBottom() {
+        return bottom;
+    }
+
+    public boolean owns(int y) {
+        return y >= top && y < bottom;
+    }
+
+    /**
+     * Sends the neds leaving the band to its neighbours and waits for the neds leaving theirs,
+     * after which they can be read from {@link #fromAbove()} and {@link #fromBelow()}.
+     *
+     * @param step
+     * @param population
+     * @param upward the slots of the neds leaving through the top of the band
+     * @param downward the slots of the neds leaving through the bottom of the band
+     * @throws IOException if a neighbour hangs up or is not at the same step
+     */
+    void exchange(int step, Population population, IntList upward, IntList downward)
+        throws IOException {
+        if (up != null) {
+            up.start(message(step, population, upward));
+        }
+        if (down != null) {
+            down.start(message(step, population, downward));
+        }
+        while (!isDone(up) || !isDone(down)) {
+            if (up != null) {
+                up.listen();
+            }
+            if (down != null) {
+                down.listen();
+            }
+            selector.select();
+            for (SelectionKey key : selector.selectedKeys()) {
+                Link link = (Link) key.attachment();
+                if (key.isValid() && key.isWritable()) {
+                    link.channel.write(link.out);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    link.read(step);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * @return the neds that arrived from the band above in the last exchange, one after another
+     */
+    ByteBuffer fromAbove() {
+        return up != null ? up.in : ByteBuffer.allocate(0);
+    }
+
+    /**
+     * @return the neds that arrived from the band below in the last exchange, one after another
+     */
+    ByteBuffer fromBelow() {
+        return down != null ? down.in : ByteBuffer.allocate(0);
+    }
+
+    private static boolean isDone(Link link) {
+        return link == null || link.isDone();
+    }
+
+    private static ByteBuffer message(int step, Population population, IntList slots) {
+        ByteBuffer out = ByteBuffer.allocate(Header + slots.size() * Population.NedBytes);
+        out.putInt(step).putInt(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            population.writeNed(slots.get(i), out);
+        }
+        out.flip();
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (up != null) {
+                up.channel.close();
+            }
+            if (down != null) {
+                down.channel.close();
+            }
+        }
+        finally {
+            selector.close();
+        }
+    }
+
+    /**
+     * The socket to a neighbouring band, and the message going each way over it in this step.
+     */
+    private static final class Link {
+
+        final SocketChannel channel;
+        final int peer;
+        final SelectionKey key;
+        final ByteBuffer header = ByteBuffer.allocate(Header);
+        ByteBuffer out;
+        ByteBuffer in;
+        boolean received;
+
+        Link(SocketChannel channel, int peer, Selector selector) throws IOException {
+            this.channel = channel;
+            this.peer = peer;
+            channel.configureBlocking(false);
+            this.key = channel.register(selector, 0, this);
+        }
+
+        void start(ByteBuffer message) {
+            out = message;
+            in = null;
+            received = false;
+            header.clear();
+        }
+
+        boolean isDone() {
+            return !out.hasRemaining() && received;
+        }
+
+        void listen() {
+            key.interestOps((out.hasRemaining() ? SelectionKey.OP_WRITE : 0) | (received ? 0 :
+                SelectionKey.OP_READ));
+        }
+
+        void read(int step) throws IOException {
+            if (in == null) {
+                if (channel.read(header) < 0) {
+                    throw new EOFException("partition " + peer + " hung up");
+                }
+                if (header.hasRemaining()) {
+                    return;
+                }
+                int at = header.getInt(0);
+                if (at != step) {
+                    throw new IOException("partition " + peer + " is at step " + at +
+                        ", not " + step);
+                }
+                in = ByteBuffer.allocate(header.getInt(4) * Population.NedBytes);
+            }
+            if (in.hasRemaining() && channel.read(in) < 0) {
+                throw new EOFException("partition " + peer + " hung up");
+            }
+            if (!in.hasRemaining()) {
+                in.flip();
+                received = true;
+            }
+        }
+    }
+}
@@ -1,87 +1,115 @@
 package org.tjc.neds.simulation;
 
-import java.util.concurrent.locks.ReentrantLock;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.tjc.neds.Asserts;
-
 /**
+ * A view onto one cell of a {@link FoodField}. The food itself lives in the field's arrays; a
+ * patch only remembers which cell to read, so it is cheap to create and can be made whenever one
+ * is needed.
+ *
+ * Food grows back by the patch's growth rate at the end of every step, up to the most a patch can
+ * hold, but a patch is not visited to make that happen: its food is worked out from the step it
+ * was last brought up to date whenever it is looked at, so a patch nobody eats from costs nothing.
  *
  * @author Thomas
  */
 public class Patch {
 
-    private static final Logger log = LoggerFactory.getLogger(Patch.class.getName());
-    private final ReentrantLock lock = new ReentrantLock();
-    private int food;
-    private final Coordinate location;
-    private final Range<Integer> foodRange;
-    private int foodGrowthRate;
+    private final FoodField field;
+    private final int cell;
+
+    Patch(FoodField field, int cell) {
+        this.field = field;
+        this.cell = cell;
+    }
 
-    public Patch(Range<Integer> foodRange, Neds neds, Coordinate c) {
-        Asserts.assertNotNull(neds, "neds is null");
-        this.location = c;
-        this.foodRange = foodRange;
-        init();
+    /**
+     * A patch of its own, outside any simulation's field.
+     *
+     * @param foodRange
+     * @param food
+     * @param foodGrowthRate
+     */
+    Patch(Range<Integer> foodRange, int food, int foodGrowthRate) {
+        this(new FoodField(new Dimensions(1, 1), foodRange, new CounterRng(0)), 0);
+        field.put(0, food, foodGrowthRate);
     }
 
+    /**
+     * Brings the patch up to date with every regrowth up to and including the given step's.
+     *
+     * @param step
+     */
     public void replant(int step) {
-        food += foodGrowthRate;
-        if (food > getMaxFood()) {
-            food = getMaxFood();
-        }
+        field.catchUp(cell, step);
     }
 
     public Coordinate getLocation() {
-        return location;
+        return new Coordinate(cell % field.getWidth(), cell / field.getWidth());
     }
 
+    /**
+     * @return the food on the patch now
+     */
     public int getFood() {
-        return food;
+        return field.getFood(cell);
     }
 
-    public double getPercentRemainingFood() {
-        double rf = (food / (double) getMaxFood()) * 100.00;
-        log.debug(this.toString());
-        return rf;
+    /**
+     * @param step a step no earlier than the patch was last eaten from
+     * @return the food on the patch once the given step's regrowth is done, if nobody eats from
+     * it in the meantime
+     */
+    public int getFood(int step) {
+        return field.getFood(cell, step);
     }
 
-    private void init() {
-        int min = foodRange.getLow();
-        int max = foodRange.getHigh();
-        food = Rng.getInstance().nextInt(max - min) + min;
-        foodGrowthRate = (int) (getMaxFood() * ((Rng.getInstance().nextInt(10) + 1) / 100.00));
+    public double getPercentRemainingFood() {
+        return (getFood() / (double) getMaxFood()) * 100.00;
     }
 
     public int pick(int n) {
-        int picked = 0;
-        if (food > 0) {
-            if (food >= n) {
-                food -= n;
-                picked = n;
-            }
-            else {
-                food = 0;
-                picked = n;
-            }
-        }
-        return picked;
+        return field.pick(cell, n);
+    }
+
+    int getFoodGrowthRate() {
+        return field.getRate(cell);
+    }
+
+    FoodField getField() {
+        return field;
+    }
+
+    int getCell() {
+        return cell;
     }
 
     public int getMaxFood() {
-        return foodRange.getHigh();
+        return field.getMax();
     }
 
     public int getMinFood() {
-        return foodRange.getLow();
+        return field.getMin();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof Patch) {
+            Patch o = (Patch) other;
+            return field == o.field && cell == o.cell;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return cell;
     }
 
     @Override
     public String toString() {
         return "patch[" +
-            "location: " + location +
-            ", food: " + food +
-            ", growth rate: " + foodGrowthRate +
-            ", food range: " + foodRange + "]";
+            "location: " + getLocation() +
+            ", food: " + getFood() +
+            ", growth rate: " + getFoodGrowthRate() +
+            ", food range: [" + getMinFood() + ", " + getMaxFood() + "]]";
     }
 }
@@ -0,0 +1,656 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays store for every ned in a simulation. Each ned occupies a slot and its state
+ * lives in parallel primitive arrays indexed by that slot, so the step loop walks flat arrays
+ * instead of chasing object references. {@link Ned} is only a view onto a slot.
+ *
+ * Dead slots stay in place until the store is rebuilt with {@link #compactFrom}. Compaction is
+ * stable, so slots remain in birth order, but it renumbers them; views taken before a compaction
+ * must not be used after it.
+ *
+ * @author Thomas
+ */
+public class Population {
+
+    static final int FoodSackCapacity = 3;
+    /**
+     * The size of a ned written by {@link #writeNed}.
+     */
+    static final int NedBytes = 47;
+    private static final int DefaultCapacity = 64;
+    private static final Direction[] Directions = Direction.values();
+
+    private long[] id;
+    private long[] dna;
+    private long[] curr;
+    private int[] ip;
+    private int[] age;
+    private int[] foodSack;
+    private int[] x;
+    private int[] y;
+    private byte[] facing;
+    private byte[] sex;
+    private byte[] instruction;
+    private boolean[] alive;
+    private int size;
+    private int live;
+    private long nextId;
+    private int idStride = 1;
+    private int step;
+    private final CounterRng random;
+
+    public Population(int capacity, CounterRng random) {
+        this.random = random;
+        allocate(Math.max(capacity, DefaultCapacity));
+    }
+
+    private Population(Population src) {
+        this.random = src.random;
+        int capacity = src.id.length;
+        id = Arrays.copyOf(src.id, capacity);
+        dna = Arrays.copyOf(src.dna, capacity);
+        curr = Arrays.copyOf(src.curr, capacity);
+        ip = Arrays.copyOf(src.ip, capacity);
+        age = Arrays.copyOf(src.age, capacity);
+        foodSack = Arrays.copyOf(src.foodSack, capacity);
+        x = Arrays.copyOf(src.x, capacity);
+        y = Arrays.copyOf(src.y, capacity);
+        facing = Arrays.copyOf(src.facing, capacity);
+        sex = Arrays.copyOf(src.sex, capacity);
+        instruction = Arrays.copyOf(src.instruction, capacity);
+        alive = Arrays.copyOf(src.alive, capacity);
+        size = src.size;
+        live = src.live;
+        nextId = src.nextId;
+        idStride = src.idStride;
+        step = src.step;
+    }
+
+    /**
+     * @return a new store holding the same neds in the same slots, with the same room to grow
+     */
+    Population copy() {
+        return new Population(this);
+    }
+
+    /**
+     * @return a new store holding only the live neds, in their current order
+     */
+    Population compact() {
+        Population p = new Population(live + (live >> 1), random);
+        p.compactFrom(this);
+        return p;
+    }
+
+    /**
+     * Adds a ned to the store.
+     *
+     * @param dna
+     * @param curr the strand the ned's program starts executing from
+     * @param sex
+     * @param facing ordinal of the ned's {@link Direction}
+     * @param x
+     * @param y
+     * @return the new ned's slot
+     */
+    int add(long dna, long curr, char sex, int facing, int x, int y) {
+        int slot = add(nextId, dna, curr, sex, facing, x, y);
+        nextId += idStride;
+        return slot;
+    }
+
+    /**
+     * Adds a ned with the given id, leaving the ids handed out to newborns alone.
+     */
+    int add(long id, long dna, long curr, char sex, int facing, int x, int y) {
+        if (size == this.id.length) {
+            grow();
+        }
+        int slot = size++;
+        this.id[slot] = id;
+        this.dna[slot] = dna;
+        this.curr[slot] = curr;
+        this.ip[slot] = 0;
+        this.age[slot] = 0;
+        this.foodSack[slot] = 0;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.facing[slot] = (byte) facing;
+        this.sex[slot] = (byte) sex;
+        this.instruction[slot] = 0;
+        this.alive[slot] = true;
+        live++;
+        return slot;
+    }
+
+    /**
+     * Decodes the next 2-bit instruction of the ned's dna program. The program restarts from the
+     * top every 19 instructions.
+     *
+     * @param slot
+     * @return the instruction
+     */
+    public int next(int slot) {
+        if (ip[slot] == 19) {
+            ip[slot] = 1;
+            curr[slot] = dna[slot];
+        }
+        else {
+            ip[slot]++;
+        }
+        int instr = (int) curr[slot] & 3;
+        curr[slot] >>= 2;
+        instruction[slot] = (byte) instr;
+        return instr;
+    }
+
+    /**
+     * Runs the next instruction of every live ned in a range of slots, 64 at a time. For each
+     * word of slots the low and high bits of the instructions are gathered into two bit planes,
+     * from which the turn, move, mate and idle masks fall out with a few word-wide operations.
+     * Programs advance and neds age here too, and the neds whose instruction is a turn are turned
+     * straight from the mask, leaving only moves and matings for the step to act on.
+     *
+     * @param from the first slot, a multiple of 64
+     * @param to the slot after the last
+     * @param masks where each word's masks are written
+     */
+    void execute(int from, int to, InstructionMasks masks) {
+        for (int base = from; base < to; base += 64) {
+            int n = Math.min(64, to - base);
+            long lo = 0;
+            long hi = 0;
+            long live = 0;
+            for (int i = 0; i < n; i++) {
+                int slot = base + i;
+                if (alive[slot]) {
+                    boolean restart = ip[slot] == 19;
+                    long program = restart ? dna[slot] : curr[slot];
+                    lo |= (program & 1) << i;
+                    hi |= ((program >>> 1) & 1) << i;
+                    live |= 1L << i;
+                    ip[slot] = restart ? 1 : ip[slot] + 1;
+                    curr[slot] = program >> 2;
+                    instruction[slot] = (byte) (program & 3);
+                    age[slot]++;
+                }
+            }
+            int word = base >>> 6;
+            long turns = live & ~hi & ~lo;
+            masks.turn[word] = turns;
+            masks.move[word] = live & ~hi & lo;
+            masks.mate[word] = live & hi & ~lo;
+            masks.idle[word] = live & hi & lo;
+            for (; turns != 0; turns &= turns - 1) {
+                int slot = base + Long.numberOfTrailingZeros(turns);
+                facing[slot] = (byte) turn(facing[slot], 0);
+            }
+        }
+    }
+
+    public void turnLeft(int slot) {
+        facing[slot] = (byte) turn(facing[slot], 0);
+    }
+
+    public void turnRight(int slot) {
+        facing[slot] = (byte) turn(facing[slot], 1);
+    }
+
+    static int turn(int facing, int dir) {
+        switch (Directions[facing]) {
+            case North:
+                return (dir == 0 ? Direction.NorthWest : Direction.NorthEast).ordinal();
+            case NorthEast:
+                return (dir == 0 ? Direction.North : Direction.East).ordinal();
+            case NorthWest:
+                return (dir == 0 ? Direction.West : Direction.North).ordinal();
+            case South:
+                return (dir == 0 ? Direction.SouthEast : Direction.SouthWest).ordinal();
+            case SouthEast:
+                return (dir == 0 ? Direction.East : Direction.South).ordinal();
+            case SouthWest:
+                return (dir == 0 ? Direction.South : Direction.West).ordinal();
+            case East:
+                return (dir == 0 ? Direction.NorthEast : Direction.SouthEast).ordinal();
+            case West:
+                return (dir == 0 ? Direction.SouthWest : Direction.NorthWest).ordinal();
+        }
+        return facing;
+    }
+
+    /**
+     * Feeds the ned from its sack, topping the sack up from the patch when it runs short.
+     *
+     * @param slot
+     * @param p
+     * @return false if the ned could not get enough food and should starve
+     */
+    public boolean eatFrom(int slot, Patch p) {
+        return eatFrom(slot, p.getField(), p.getCell());
+    }
+
+    /**
+     * Feeds the ned from its sack, topping the sack up from a cell of the food field when it runs
+     * short.
+     *
+     * @param slot
+     * @param field
+     * @param cell
+     * @return false if the ned could not get enough food and should starve
+     */
+    boolean eatFrom(int slot, FoodField field, int cell) {
+        int required = (age[slot] / 80) + 1;
+        int sack = foodSack[slot];
+
+        if (sack >= required) {
+            foodSack[slot] = sack - required;
+            return true;
+        }
+        else {
+            int needThisMuch = required - sack;
+            if (needThisMuch + sack <= FoodSackCapacity) {
+                if (field.getFood(cell) >= needThisMuch) {
+                    sack += field.pick(cell, needThisMuch);
+                    sack -= required;
+                    if (field.getFood(cell) >= FoodSackCapacity) {
+                        int pick = FoodSackCapacity - sack;
+                        if (pick > 0) {
+                            sack += field.pick(cell, pick);
+                        }
+                    }
+                    foodSack[slot] = sack;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean eat(int slot, int n) {
+        if (foodSack[slot] >= n) {
+            foodSack[slot] -= n;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mates two neds of opposite sex, placing the offspring on the first ned's patch. Both parents
+     * eat from the patch afterwards. Every random draw of a mating is keyed on the current step and
+     * the first ned's id, so it does not depend on the order in which pairs are mated.
+     *
+     * @param slot
+     * @param p
+     * @param mate
+     * @return the offspring's slot, or -1 if the pair can't mate
+     */
+    public int mate(int slot, Patch p, int mate) {
+        return mate(slot, p.getField(), p.getCell(), mate);
+    }
+
+    int mate(int slot, FoodField field, int cell, int mate) {
+        if (alive[slot] && alive[mate] && sex[mate] != sex[slot]) {
+            return mateWith(slot, field, cell, mate);
+        }
+        return -1;
+    }
+
+    private int mateWith(int slot, FoodField field, int cell, int mate) {
+        long myDna = dna[mate];
+        long mateDna = dna[mate];
+
+        long key = id[slot];
+        int splicePoint = random.nextInt(step, key, CounterRng.Purpose.Splice, 39) + 1;
+        long s1 = (1L << splicePoint) - 1;
+        long s2 = ((1L << 40) - 1) & ~s1;
+        long newDna = (myDna & s1) + (mateDna & s2);
+
+        // a newborn's program starts out on the random strand it was seeded with and only picks up
+        // the spliced dna at its first restart.
+        long seeded = random.nextLong(step, key, CounterRng.Purpose.Strand);
+        char s = random.nextBoolean(step, key, CounterRng.Purpose.Sex) ? 'm' : 'f';
+        int f = random.nextInt(step, key, CounterRng.Purpose.Facing, 8);
+        int offspring = add(newDna, seeded, s, f, x[slot], y[slot]);
+
+        eatFrom(slot, field, cell);
+        eatFrom(mate, field, cell);
+
+        return offspring;
+    }
+
+    /**
+     * Sets the ids handed out to newborns from now on. Several stores can share one id space by
+     * each starting at a different id and stepping by the number of stores.
+     *
+     * @param first
+     * @param stride
+     */
+    void numberFrom(long first, int stride) {
+        nextId = first;
+        idStride = stride;
+    }
+
+    /**
+     * Writes everything about a ned, in {@link #NedBytes} bytes.
+     *
+     * @param slot
+     * @param out
+     */
+    void writeNed(int slot, ByteBuffer out) {
+        out.putLong(id[slot]);
+        out.putLong(dna[slot]);
+        out.putLong(curr[slot]);
+        out.putInt(ip[slot]);
+        out.putInt(age[slot]);
+        out.putInt(foodSack[slot]);
+        out.putInt(x[slot]);
+        out.putInt(y[slot]);
+        out.put(facing[slot]);
+        out.put(sex[slot]);
+        out.put(instruction[slot]);
+    }
+
+    /**
+     * Adds a ned written by {@link #writeNed}, as it was.
+     *
+     * @param in
+     * @return the ned's slot
+     */
+    int readNed(ByteBuffer in) {
+        long nedId = in.getLong();
+        long nedDna = in.getLong();
+        int slot = add(nedId, nedDna, in.getLong(), 'f', 0, 0, 0);
+        ip[slot] = in.getInt();
+        age[slot] = in.getInt();
+        foodSack[slot] = in.getInt();
+        x[slot] = in.getInt();
+        y[slot] = in.getInt();
+        facing[slot] = in.get();
+        sex[slot] = in.get();
+        instruction[slot] = in.get();
+        return slot;
+    }
+
+    void kill(int slot) {
+        if (alive[slot]) {
+            alive[slot] = false;
+            live--;
+        }
+    }
+
+    /**
+     * Copies another store into this one, slot for slot. A store too small to take the copy is
+     * given the other's room to grow, without copying what it held.
+     *
+     * @param src
+     */
+    void copyFrom(Population src) {
+        if (id.length < src.size) {
+            allocate(src.id.length);
+        }
+        System.arraycopy(src.id, 0, id, 0, src.size);
+        System.arraycopy(src.dna, 0, dna, 0, src.size);
+        System.arraycopy(src.curr, 0, curr, 0, src.size);
+        System.arraycopy(src.ip, 0, ip, 0, src.size);
+        System.arraycopy(src.age, 0, age, 0, src.size);
+        System.arraycopy(src.foodSack, 0, foodSack, 0, src.size);
+        System.arraycopy(src.x, 0, x, 0, src.size);
+        System.arraycopy(src.y, 0, y, 0, src.size);
+        System.arraycopy(src.facing, 0, facing, 0, src.size);
+        System.arraycopy(src.sex, 0, sex, 0, src.size);
+        System.arraycopy(src.instruction, 0, instruction, 0, src.size);
+        System.arraycopy(src.alive, 0, alive, 0, src.size);
+        size = src.size;
+        live = src.live;
+        nextId = src.nextId;
+        idStride = src.idStride;
+        step = src.step;
+    }
+
+    /**
+     * Copies only the live neds of another store into this one, keeping them in their current
+     * order, which squeezes out the dead slots. A store too small to take them is given half as
+     * much again of room to grow, without copying what it held.
+     *
+     * @param src
+     */
+    void compactFrom(Population src) {
+        if (id.length < src.live) {
+            allocate(src.live + (src.live >> 1));
+        }
+        int to = 0;
+        for (int from = 0; from < src.size; from++) {
+            if (src.alive[from]) {
+                id[to] = src.id[from];
+                dna[to] = src.dna[from];
+                curr[to] = src.curr[from];
+                ip[to] = src.ip[from];
+                age[to] = src.age[from];
+                foodSack[to] = src.foodSack[from];
+                x[to] = src.x[from];
+                y[to] = src.y[from];
+                facing[to] = src.facing[from];
+                sex[to] = src.sex[from];
+                instruction[to] = src.instruction[from];
+                alive[to] = true;
+                to++;
+            }
+        }
+        size = to;
+        live = to;
+        nextId = src.nextId;
+        idStride = src.idStride;
+        step = src.step;
+    }
+
+    /**
+     * @return true once dead slots make up more than a quarter of the store
+     */
+    public boolean needsCompaction() {
+        return (size - live) > (size >> 2);
+    }
+
+    /**
+     * The instruction {@link #next(int)} would return, without advancing the program.
+     *
+     * @param slot
+     * @return the instruction
+     */
+    public int peek(int slot) {
+        return (int) (ip[slot] == 19 ? dna[slot] : curr[slot]) & 3;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo} writes
+     */
+    long bytes() {
+        return 20 + 48L * size;
+    }
+
+    void writeTo(SnapshotWriter out) throws IOException {
+        out.putInt(size);
+        out.putInt(live);
+        out.putLong(nextId);
+        out.putInt(step);
+        out.putLongs(id, size);
+        out.putLongs(dna, size);
+        out.putLongs(curr, size);
+        out.putInts(ip, size);
+        out.putInts(age, size);
+        out.putInts(foodSack, size);
+        out.putInts(x, size);
+        out.putInts(y, size);
+        out.putBytes(facing, size);
+        out.putBytes(sex, size);
+        out.putBytes(instruction, size);
+        out.putBooleans(alive, size);
+    }
+
+    void readFrom(SnapshotReader in) throws IOException {
+        int n = in.getInt();
+        ensureCapacity(n);
+        size = n;
+        live = in.getInt();
+        nextId = in.getLong();
+        step = in.getInt();
+        in.getLongs(id, size);
+        in.getLongs(dna, size);
+        in.getLongs(curr, size);
+        in.getInts(ip, size);
+        in.getInts(age, size);
+        in.getInts(foodSack, size);
+        in.getInts(x, size);
+        in.getInts(y, size);
+        in.getBytes(facing, size);
+        in.getBytes(sex, size);
+        in.getBytes(instruction, size);
+        in.getBooleans(alive, size);
+    }
+
+    public Ned view(int slot) {
+        return new Ned(this, slot);
+    }
+
+    /**
+     * @return the number of slots in use, dead or alive
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of live neds
+     */
+    public int live() {
+        return live;
+    }
+
+    public boolean isAlive(int slot) {
+        return alive[slot];
+    }
+
+    public long getId(int slot) {
+        return id[slot];
+    }
+
+    public long getDna(int slot) {
+        return dna[slot];
+    }
+
+    void setDna(int slot, long dna) {
+        this.dna[slot] = dna;
+    }
+
+    public long getCurr(int slot) {
+        return curr[slot];
+    }
+
+    public int getIp(int slot) {
+        return ip[slot];
+    }
+
+    public int getAge(int slot) {
+        return age[slot];
+    }
+
+    void setAge(int slot, int age) {
+        this.age[slot] = age;
+    }
+
+    public int getFoodSack(int slot) {
+        return foodSack[slot];
+    }
+
+    public int getX(int slot) {
+        return x[slot];
+    }
+
+    public int getY(int slot) {
+        return y[slot];
+    }
+
+    void setLocation(int slot, int x, int y) {
+        this.x[slot] = x;
+        this.y[slot] = y;
+    }
+
+    public Direction getFacing(int slot) {
+        return Directions[facing[slot]];
+    }
+
+    public char getSex(int slot) {
+        return (char) sex[slot];
+    }
+
+    void setSex(int slot, char sex) {
+        this.sex[slot] = (byte) sex;
+    }
+
+    public boolean isMale(int slot) {
+        return sex[slot] == 'm';
+    }
+
+    public CounterRng getRandom() {
+        return random;
+    }
+
+    /**
+     * @return the step the store is being advanced to, which keys its random draws
+     */
+    public int getStep() {
+        return step;
+    }
+
+    void setStep(int step) {
+        this.step = step;
+    }
+
+    public int getInstruction(int slot) {
+        return instruction[slot];
+    }
+
+    private void grow() {
+        resize(id.length + (id.length >> 1));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > id.length) {
+            resize(Math.max(capacity, id.length + (id.length >> 1)));
+        }
+    }
+
+    private void resize(int capacity) {
+        id = Arrays.copyOf(id, capacity);
+        dna = Arrays.copyOf(dna, capacity);
+        curr = Arrays.copyOf(curr, capacity);
+        ip = Arrays.copyOf(ip, capacity);
+        age = Arrays.copyOf(age, capacity);
+        foodSack = Arrays.copyOf(foodSack, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        facing = Arrays.copyOf(facing, capacity);
+        sex = Arrays.copyOf(sex, capacity);
+        instruction = Arrays.copyOf(instruction, capacity);
+        alive = Arrays.copyOf(alive, capacity);
+    }
+
+    private void allocate(int capacity) {
+        id = new long[capacity];
+        dna = new long[capacity];
+        curr = new long[capacity];
+        ip = new int[capacity];
+        age = new int[capacity];
+        foodSack = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        facing = new byte[capacity];
+        sex = new byte[capacity];
+        instruction = new byte[capacity];
+        alive = new boolean[capacity];
+    }
+}
@@ -0,0 +1,233 @@
+package org.tjc.neds.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics of a {@link Population}, kept up to date by the step as neds are born, eat
+ * and die, so reading them never scans the population.
+ *
+ * Every living ned ages by exactly one each step, so ages are not stored here at all. Neds are
+ * counted by the step they were born in instead, and a ned's age is the current step less its
+ * birth step: the whole age histogram then shifts by one at no cost as the step advances. Slots
+ * are in birth order, which also makes the oldest neds simply the first live slots.
+ *
+ * @author Thomas
+ */
+public class PopulationStats {
+
+    private int[] cohorts = new int[64];
+    private int firstCohort;
+    private int lastCohort;
+    private int step;
+    private int live;
+    private int males;
+    private long food;
+    private final LongCounts genomes;
+    private int distinctGenomes;
+    private int oldest;
+
+    PopulationStats() {
+        this.genomes = new LongCounts();
+    }
+
+    private PopulationStats(PopulationStats from) {
+        this.genomes = null;
+        this.cohorts = from.cohorts.clone();
+        this.firstCohort = from.firstCohort;
+        this.lastCohort = from.lastCohort;
+        this.step = from.step;
+        this.live = from.live;
+        this.males = from.males;
+        this.food = from.food;
+        this.distinctGenomes = from.genomes.size();
+        this.oldest = from.oldest;
+    }
+
+    /**
+     * @return a copy of the statistics as they stand, which nothing updates
+     */
+    PopulationStats freeze() {
+        return new PopulationStats(this);
+    }
+
+    void born(int birth, long dna, char sex, int foodSack) {
+        int first = live == 0 ? birth : Math.min(firstCohort, birth);
+        int last = live == 0 ? birth : Math.max(lastCohort, birth);
+        if (last - first >= cohorts.length) {
+            resize(first, last);
+        }
+        firstCohort = first;
+        lastCohort = last;
+        cohorts[birth & (cohorts.length - 1)]++;
+        live++;
+        if (sex == 'm') {
+            males++;
+        }
+        food += foodSack;
+        genomes.increment(dna);
+    }
+
+    void died(int step, int age, long dna, char sex, int foodSack) {
+        int mask = cohorts.length - 1;
+        cohorts[(step - age) & mask]--;
+        live--;
+        if (sex == 'm') {
+            males--;
+        }
+        food -= foodSack;
+        genomes.decrement(dna);
+        while (firstCohort < lastCohort && cohorts[firstCohort & mask] == 0) {
+            firstCohort++;
+        }
+    }
+
+    /**
+     * Counts in a ned that crossed into a band of a split world from the band next to it. It is
+     * counted as if born at the step its age gives, but it isn't a birth.
+     */
+    void arrived(int step, int age, long dna, char sex, int foodSack) {
+        born(step - age, dna, sex, foodSack);
+    }
+
+    /**
+     * Counts out a ned that crossed out of a band of a split world into the band next to it, as a
+     * death would be, though it isn't one.
+     */
+    void left(int step, int age, long dna, char sex, int foodSack) {
+        died(step, age, dna, sex, foodSack);
+    }
+
+    /**
+     * @param delta the change in the total of all food sacks
+     */
+    void fed(long delta) {
+        food += delta;
+    }
+
+    /**
+     * Closes a step: ages move on by one and the first live slot is found again, which is
+     * amortized constant because it only ever moves forward between compactions.
+     *
+     * @param step
+     * @param population the population as committed by the step
+     */
+    void endStep(int step, Population population) {
+        this.step = step;
+        int size = population.size();
+        while (oldest < size && !population.isAlive(oldest)) {
+            oldest++;
+        }
+    }
+
+    /**
+     * The population was compacted, so the first live slot is the first slot.
+     */
+    void compacted() {
+        oldest = 0;
+    }
+
+    /**
+     * Recounts everything from a population, as needed when a simulation is restored.
+     *
+     * @param step
+     * @param population
+     */
+    void rebuild(int step, Population population) {
+        Arrays.fill(cohorts, 0);
+        genomes.clear();
+        live = 0;
+        males = 0;
+        food = 0;
+        oldest = 0;
+        for (int slot = 0; slot < population.size(); slot++) {
+            if (population.isAlive(slot)) {
+                born(step - population.getAge(slot), population.getDna(slot),
+                    population.getSex(slot), population.getFoodSack(slot));
+            }
+        }
+        endStep(step, population);
+    }
+
+    private void resize(int first, int last) {
+        int[] old = cohorts;
+        int n = Integer.highestOneBit((last - first + 1) * 2 - 1);
+        cohorts = new int[n];
+        if (live > 0) {
+            for (int b = firstCohort; b <= lastCohort; b++) {
+                cohorts[b & (n - 1)] = old[b & (old.length - 1)];
+            }
+        }
+    }
+
+    public int getLive() {
+        return live;
+    }
+
+    public int getMales() {
+        return males;
+    }
+
+    public int getFemales() {
+        return live - males;
+    }
+
+    /**
+     * @return males per female, or NaN when there are no females
+     */
+    public double getSexRatio() {
+        int females = getFemales();
+        return females == 0 ? Double.NaN : (double) males / females;
+    }
+
+    /**
+     * @return how full the average food sack is, from 0 to 1
+     */
+    public double getMeanFoodSackFill() {
+        return live == 0 ? 0.0 : (double) food / ((long) live * Population.FoodSackCapacity);
+    }
+
+    public int getDistinctGenomes() {
+        return genomes != null ? genomes.size() : distinctGenomes;
+    }
+
+    /**
+     * @return the age of the oldest living ned, or -1 if there is none
+     */
+    public int getMaxAge() {
+        return live == 0 ? -1 : step - firstCohort;
+    }
+
+    /**
+     * @param age
+     * @return how many living neds are this old
+     */
+    public int getAgeCount(int age) {
+        int birth = step - age;
+        if (live == 0 || birth < firstCohort || birth > lastCohort) {
+            return 0;
+        }
+        return cohorts[birth & (cohorts.length - 1)];
+    }
+
+    /**
+     * @return the number of living neds of each age, indexed by age up to the oldest
+     */
+    public int[] getAgeHistogram() {
+        int[] histogram = new int[getMaxAge() + 1];
+        for (int age = 0; age < histogram.length; age++) {
+            histogram[age] = getAgeCount(age);
+        }
+        return histogram;
+    }
+
+    int getStep() {
+        return step;
+    }
+
+    /**
+     * @return the lowest slot that may still be alive
+     */
+    int getOldestSlot() {
+        return oldest;
+    }
+}
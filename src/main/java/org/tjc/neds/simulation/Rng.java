@@ -20,6 +20,11 @@ public class Rng {
         rng = new Random(seed);
     }
 
+    public void setSeed(long seed) {
+        this.seed = seed;
+        rng = new Random(seed);
+    }
+
     public void setNewRandomSeed() {
         Random r = new Random();
         seed = r.nextLong();
@@ -55,9 +60,4 @@ public class Rng {
         seed = r.nextLong();
         rng = new Random(seed);
     }
-
-    private Rng(long seed) {
-        this.seed = seed;
-        rng = new Random(this.seed);
-    }
 }
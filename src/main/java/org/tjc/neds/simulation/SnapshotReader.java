@@ -0,0 +1,87 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a world snapshot written by {@link SnapshotWriter}, mapping the file one read-only window
+ * at a time.
+ *
+ * @author Thomas
+ */
+class SnapshotReader implements Closeable {
+
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer window;
+    private long position;
+
+    SnapshotReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.length = channel.size();
+    }
+
+    int getInt() throws IOException {
+        return ensure(4).getInt();
+    }
+
+    long getLong() throws IOException {
+        return ensure(8).getLong();
+    }
+
+    void getInts(int[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(4).remaining() / 4);
+            window.asIntBuffer().get(a, off, n);
+            window.position(window.position() + n * 4);
+            off += n;
+        }
+    }
+
+    void getLongs(long[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(8).remaining() / 8);
+            window.asLongBuffer().get(a, off, n);
+            window.position(window.position() + n * 8);
+            off += n;
+        }
+    }
+
+    void getBytes(byte[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(1).remaining());
+            window.get(a, off, n);
+            off += n;
+        }
+    }
+
+    void getBooleans(boolean[] a, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            a[i] = ensure(1).get() != 0;
+        }
+    }
+
+    private MappedByteBuffer ensure(int bytes) throws IOException {
+        if (window == null || window.remaining() < bytes) {
+            if (window != null) {
+                position += window.position();
+            }
+            long size = Math.min(SnapshotWriter.WindowSize, length - position);
+            if (size < bytes) {
+                throw new IOException("snapshot is truncated at byte " + position);
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        return window;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,115 @@
+package org.tjc.neds.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.tjc.neds.Asserts;
+
+/**
+ * Writes a world snapshot through memory-mapped windows of a file channel. A single mapping is
+ * limited to 2GB, so the file is mapped one window at a time as writing moves through it, and bulk
+ * array writes go straight into the mapped memory.
+ *
+ * The size of the snapshot is given up front and the last window ends where the snapshot does, so
+ * the file never has to be trimmed: a file can't be truncated while a mapping of it is live on
+ * every platform, and Java has no way to drop a mapping.
+ *
+ * @author Thomas
+ */
+class SnapshotWriter implements Closeable {
+
+    static final int Magic = 0x4E454453;
+    static final int Version = 1;
+    static final long WindowSize = 1L << 28;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long position;
+
+    /**
+     * @param file
+     * @param size the number of bytes that will be written
+     */
+    SnapshotWriter(Path file, long size) throws IOException {
+        this.size = size;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void putInt(int v) throws IOException {
+        ensure(4).putInt(v);
+    }
+
+    void putLong(long v) throws IOException {
+        ensure(8).putLong(v);
+    }
+
+    void putInts(int[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(4).remaining() / 4);
+            window.asIntBuffer().put(a, off, n);
+            window.position(window.position() + n * 4);
+            off += n;
+        }
+    }
+
+    void putLongs(long[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(8).remaining() / 8);
+            window.asLongBuffer().put(a, off, n);
+            window.position(window.position() + n * 8);
+            off += n;
+        }
+    }
+
+    void putBytes(byte[] a, int length) throws IOException {
+        for (int off = 0; off < length;) {
+            int n = Math.min(length - off, ensure(1).remaining());
+            window.put(a, off, n);
+            off += n;
+        }
+    }
+
+    void putBooleans(boolean[] a, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            ensure(1).put((byte) (a[i] ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return a window with room for at least the given number of bytes
+     */
+    private MappedByteBuffer ensure(int bytes) throws IOException {
+        if (window == null || window.remaining() < bytes) {
+            if (window != null) {
+                position += window.position();
+                window.force();
+            }
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(WindowSize,
+                size - position));
+        }
+        return window;
+    }
+
+    /**
+     * Flushes the last window.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (window != null) {
+                position += window.position();
+                window.force();
+                window = null;
+            }
+            Asserts.assertTrue(position == size, "wrote " + position + " bytes of " + size);
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.tjc.neds.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where a simulation's time goes: a latency histogram for each phase of the step and for the
+ * simulation lock, and counts of the instructions the neds ran.
+ *
+ * Recording is cheap enough to leave on. Phases are timed once per step by the stepping thread,
+ * and instructions are counted from the step's instruction masks and added here once per step, so
+ * the parallel part of the step never touches a shared counter.
+ *
+ * @author Thomas
+ */
+public class StepMetrics implements StepMetricsMXBean {
+
+    /**
+     * The phases of {@link Neds#step()}, in the order they run.
+     */
+    public enum Phase {
+        /** Copying or compacting the front buffer into the back buffer. */
+        Copy,
+        /** Decoding and running every ned's next instruction, a block of slots at a time. */
+        Decode,
+        /** Feeding every ned and picking out the movers and maters, stripe by stripe. */
+        Commit,
+        /** Removing the neds that starved. */
+        Deaths,
+        /** Moving the neds that stepped to another patch. */
+        Moves,
+        /** Trading the neds that crossed a partition's edge with the neighbouring partitions. */
+        Exchange,
+        /** Mating pairs and placing their offspring. */
+        Matings,
+        /** Publishing the food left on the patches that were eaten from. */
+        Food,
+        /** The whole step, end to end. */
+        Step
+    }
+
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LatencyHistogram lockHold = new LatencyHistogram();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder matings = new LongAdder();
+    private final LongAdder idles = new LongAdder();
+    private final LongAdder starvations = new LongAdder();
+    private ObjectName name;
+
+    StepMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    void record(Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    void stepped() {
+        steps.increment();
+    }
+
+    void executed(long turns, long moves, long matings, long idles) {
+        this.turns.add(turns);
+        this.moves.add(moves);
+        this.matings.add(matings);
+        this.idles.add(idles);
+    }
+
+    void starved(long n) {
+        starvations.add(n);
+    }
+
+    LatencyHistogram lockWait() {
+        return lockWait;
+    }
+
+    LatencyHistogram lockHold() {
+        return lockHold;
+    }
+
+    @Override
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    @Override
+    public long getTurns() {
+        return turns.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public long getMatings() {
+        return matings.sum();
+    }
+
+    @Override
+    public long getIdles() {
+        return idles.sum();
+    }
+
+    @Override
+    public long getStarvations() {
+        return starvations.sum();
+    }
+
+    public LatencySummary getLatency(Phase phase) {
+        return phases.get(phase).summarize();
+    }
+
+    @Override
+    public Map<String, LatencySummary> getPhaseLatencies() {
+        Map<String, LatencySummary> latencies = new LinkedHashMap<>();
+        phases.forEach((phase, histogram) -> latencies.put(phase.name(), histogram.summarize()));
+        return latencies;
+    }
+
+    @Override
+    public LatencySummary getLockWait() {
+        return lockWait.summarize();
+    }
+
+    @Override
+    public LatencySummary getLockHold() {
+        return lockHold.summarize();
+    }
+
+    @Override
+    public void reset() {
+        phases.values().forEach(LatencyHistogram::reset);
+        lockWait.reset();
+        lockHold.reset();
+        steps.reset();
+        turns.reset();
+        moves.reset();
+        matings.reset();
+        idles.reset();
+        starvations.reset();
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server as
+     * {@code org.tjc.neds:type=StepMetrics,name=<name>}, replacing any earlier registration of
+     * this object.
+     *
+     * @param name
+     * @return the name the MBean was registered under
+     * @throws JMException if the name is invalid or already taken
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName("org.tjc.neds:type=StepMetrics,name=" +
+            ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Withdraws the MBean if it was registered.
+     *
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            name = null;
+        }
+    }
+}
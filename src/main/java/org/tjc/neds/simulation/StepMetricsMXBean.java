@@ -0,0 +1,44 @@
+package org.tjc.neds.simulation;
+
+import java.util.Map;
+
+/**
+ * The management interface through which a simulation's {@link StepMetrics} are published over
+ * JMX.
+ *
+ * @author Thomas
+ */
+public interface StepMetricsMXBean {
+
+    long getSteps();
+
+    long getTurns();
+
+    long getMoves();
+
+    long getMatings();
+
+    /**
+     * @return instructions that did nothing this step
+     */
+    long getIdles();
+
+    long getStarvations();
+
+    /**
+     * @return the latency of each phase of the step, keyed by phase name
+     */
+    Map<String, LatencySummary> getPhaseLatencies();
+
+    /**
+     * @return how long threads waited to take the simulation lock
+     */
+    LatencySummary getLockWait();
+
+    /**
+     * @return how long the simulation lock was held each time it was taken
+     */
+    LatencySummary getLockHold();
+
+    void reset();
+}
@@ -0,0 +1,284 @@
+package org.tjc.neds.simulation;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Steps a simulation in the background at a steady rate. Steps are started on a fixed schedule
+ * rather than a fixed pause after each one, so the rate doesn't drift with the cost of a step; a
+ * step that overruns its slot is followed straight away by the next, until the run has caught up
+ * or has fallen so far behind that it starts the schedule afresh. At {@link #MaxSpeed} steps
+ * follow one another with no wait at all.
+ *
+ * One thread serves every run, however often the scheduler is paused and resumed. Pausing takes
+ * effect once the step under way is done, and a change of rate takes effect at once, even in the
+ * middle of a wait.
+ *
+ * @author Thomas
+ */
+public final class StepScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(StepScheduler.class);
+
+    /**
+     * A rate at which steps are not throttled at all.
+     */
+    public static final double MaxSpeed = Double.POSITIVE_INFINITY;
+    /**
+     * How many steps a run may fall behind its schedule before it gives up catching up.
+     */
+    private static final int MaxBacklog = 4;
+
+    private final ExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private double stepsPerSecond;
+    private long rateChanges;
+    private Run current;
+    private final Set<Run> active = new HashSet<>();
+
+    /**
+     * @param stepsPerSecond the rate to run at, or {@link #MaxSpeed}
+     */
+    public StepScheduler(double stepsPerSecond) {
+        setStepsPerSecond(stepsPerSecond);
+        this.executor = Executors.newSingleThreadExecutor((r) -> {
+            Thread t = new Thread(r, "neds-steps");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public double getStepsPerSecond() {
+        lock.lock();
+        try {
+            return stepsPerSecond;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the rate. A run waiting for its next step is rescheduled from the start of its last
+     * step at the new rate.
+     *
+     * @param stepsPerSecond the rate to run at, or {@link #MaxSpeed}
+     */
+    public void setStepsPerSecond(double stepsPerSecond) {
+        if (!(stepsPerSecond > 0)) {
+            throw new IllegalArgumentException("steps per second must be positive: " +
+                stepsPerSecond);
+        }
+        lock.lock();
+        try {
+            this.stepsPerSecond = stepsPerSecond;
+            rateChanges++;
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts stepping a simulation until it is paused or all its neds die. Resuming the
+     * simulation that is already running does nothing; a simulation resumed while another is
+     * still finishing its last step starts once that step is done.
+     *
+     * @param neds
+     * @throws IllegalStateException if another simulation is running
+     */
+    public void resume(Neds neds) {
+        lock.lock();
+        try {
+            if (current != null && !current.stopped) {
+                if (current.neds == neds) {
+                    return;
+                }
+                throw new IllegalStateException("another simulation is running");
+            }
+            current = new Run(neds);
+            active.add(current);
+            executor.execute(current);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the running simulation once the step under way is done. This doesn't wait for it.
+     */
+    public void pause() {
+        lock.lock();
+        try {
+            if (current != null) {
+                current.stopped = true;
+                changed.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isRunning() {
+        lock.lock();
+        try {
+            return current != null && !current.stopped;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until no simulation is running.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitStopped() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!active.isEmpty()) {
+                changed.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a simulation has stopped, however soon another is resumed after it.
+     *
+     * @param neds
+     * @throws InterruptedException
+     */
+    public void awaitStopped(Neds neds) throws InterruptedException {
+        lock.lock();
+        try {
+            while (isActive(neds)) {
+                changed.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isActive(Neds neds) {
+        for (Run run : active) {
+            if (run.neds == neds) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pauses, and lets the scheduler's thread end once the step under way is done.
+     */
+    public void shutdown() {
+        pause();
+        executor.shutdown();
+    }
+
+    /**
+     * @return nanoseconds from the start of one step to the start of the next
+     */
+    private long period() {
+        return stepsPerSecond == MaxSpeed ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) /
+            stepsPerSecond);
+    }
+
+    /**
+     * Waits for the next step's turn.
+     *
+     * @param run
+     * @param start when the last step started
+     * @param due when the last step was due
+     * @return when the next step is due
+     */
+    private long awaitNext(Run run, long start, long due) throws InterruptedException {
+        lock.lock();
+        try {
+            long changes = rateChanges;
+            long period = period();
+            long next = due + period;
+            long now = System.nanoTime();
+            if (now - next > MaxBacklog * period) {
+                next = now;
+            }
+            while (!run.stopped) {
+                long wait = next - System.nanoTime();
+                if (wait <= 0) {
+                    break;
+                }
+                changed.awaitNanos(wait);
+                if (rateChanges != changes) {
+                    changes = rateChanges;
+                    period = period();
+                    next = start + period;
+                }
+            }
+            return next;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One spell of stepping a simulation, from a resume to the pause or the last ned's death.
+     */
+    private final class Run implements Runnable {
+
+        final Neds neds;
+        volatile boolean stopped;
+
+        Run(Neds neds) {
+            this.neds = neds;
+        }
+
+        @Override
+        public void run() {
+            neds.fireEvent(NedsEvent.Type.Started);
+            try {
+                long due = System.nanoTime();
+                while (!stopped && neds.getPopulation() > 0) {
+                    long start = System.nanoTime();
+                    neds.step();
+                    neds.fireEvent(NedsEvent.Type.Step);
+                    due = awaitNext(this, start, due);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (RuntimeException e) {
+                log.error("simulation failed at step " + neds.getStep(), e);
+            }
+            finally {
+                neds.fireEvent(NedsEvent.Type.Stopped);
+                lock.lock();
+                try {
+                    stopped = true;
+                    active.remove(this);
+                    changed.signalAll();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.tjc.neds.simulation;
+
+/**
+ * A band of whole rows of the field that the step engine processes as one unit of work. Every ned
+ * in a stripe's rows is stepped by that stripe alone, so the patches in those rows are never
+ * shared with another thread. What a stripe can't settle locally (deaths, moves and matings) it
+ * collects here for the serial commit that follows.
+ *
+ * The stripe height is fixed and never depends on the number of threads, which is what keeps a
+ * run's outcome independent of the parallelism it was given.
+ *
+ * @author Thomas
+ */
+class Stripe {
+
+    static final int Rows = 16;
+
+    final int top;
+    final int bottom;
+    final IntList dead = new IntList();
+    final IntList moved = new IntList();
+    final IntList males = new IntList();
+    final IntList females = new IntList();
+    final IntList eaten = new IntList();
+    long fed;
+
+    Stripe(int top, int bottom) {
+        this.top = top;
+        this.bottom = bottom;
+    }
+
+    void clear() {
+        dead.clear();
+        moved.clear();
+        males.clear();
+        females.clear();
+        eaten.clear();
+        fed = 0;
+    }
+
+    static Stripe[] split(Dimensions d) {
+        return split(0, d.getHeight());
+    }
+
+    /**
+     * @param top the first row, a multiple of {@link #Rows}
+     * @param bottom the row after the last
+     * @return the stripes covering the rows
+     */
+    static Stripe[] split(int top, int bottom) {
+        Stripe[] stripes = new Stripe[(bottom - top + Rows - 1) / Rows];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(top + i * Rows, Math.min(bottom, top + (i + 1) * Rows));
+        }
+        return stripes;
+    }
+
+    /**
+     * @param height
+     * @return the number of stripes a field of the given height is cut into
+     */
+    static int count(int height) {
+        return (height + Rows - 1) / Rows;
+    }
+}
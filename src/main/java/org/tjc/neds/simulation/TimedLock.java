@@ -0,0 +1,43 @@
+package org.tjc.neds.simulation;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reentrant lock that records how long each outermost {@link #lock()} waited to acquire it and
+ * how long it was then held. Nested acquisitions by the holder are not timed.
+ *
+ * @author Thomas
+ */
+class TimedLock extends ReentrantLock {
+
+    private static final long serialVersionUID = -2017946306478617530L;
+
+    private final transient LatencyHistogram waits;
+    private final transient LatencyHistogram holds;
+    private long acquired;
+
+    TimedLock(LatencyHistogram waits, LatencyHistogram holds) {
+        this.waits = waits;
+        this.holds = holds;
+    }
+
+    @Override
+    public void lock() {
+        if (isHeldByCurrentThread()) {
+            super.lock();
+            return;
+        }
+        long start = System.nanoTime();
+        super.lock();
+        acquired = System.nanoTime();
+        waits.record(acquired - start);
+    }
+
+    @Override
+    public void unlock() {
+        if (getHoldCount() == 1) {
+            holds.record(System.nanoTime() - acquired);
+        }
+        super.unlock();
+    }
+}
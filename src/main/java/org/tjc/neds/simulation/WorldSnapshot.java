@@ -0,0 +1,371 @@
+package org.tjc.neds.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The world as it stood at the end of one step, published by {@link Neds} for anybody to read
+ * from any thread without taking a lock. A snapshot never changes once published: the step that
+ * follows works on a copy of the population and copies any chunk of food it changes, so a reader
+ * may hold on to a snapshot, and the neds it hands out, for as long as it likes. Those neds are
+ * views that only {@link Neds} can change, and it never changes the neds of a published snapshot.
+ *
+ * Snapshots are numbered in the order they are published, so a reader that polls can tell whether
+ * anything has changed since it last looked, and ask which cells changed over the last few
+ * snapshots so that it need only redraw those. The ned lists and the index of neds by cell are only
+ * built the first time they are asked for, and then kept.
+ *
+ * A snapshot that no reader ever got hold of is retired when the next one is published, and the
+ * simulation reuses its population for the step after, so a simulation nobody is watching
+ * doesn't allocate a whole population every step. A reader therefore has to {@link #observe()} a
+ * snapshot before anything of it but its counts is read, which {@link Neds} does for it.
+ *
+ * @author Thomas
+ */
+public final class WorldSnapshot {
+
+    private static final int Unobserved = 0;
+    private static final int Observed = 1;
+    private static final int Retired = 2;
+
+    /**
+     * How many snapshots back the changed cells are remembered.
+     */
+    private static final int History = 8;
+
+    private final long version;
+    private final int step;
+    private final Population population;
+    private final int live;
+    private final FoodField.Chunk[] food;
+    private final FoodField field;
+    private final int oldest;
+    private final int births;
+    private final int deaths;
+    private final PopulationStats stats;
+    private final int[][] changes;
+    private volatile List<Ned> neds;
+    private volatile ByCell byCell;
+    private final AtomicInteger state = new AtomicInteger(Unobserved);
+
+    WorldSnapshot(long version, int step, Population population, FoodField.Chunk[] food,
+        FoodField field, int oldest, int births, int deaths, PopulationStats stats,
+        int[][] changes) {
+        this.version = version;
+        this.step = step;
+        this.population = population;
+        this.live = population.live();
+        this.food = food;
+        this.field = field;
+        this.oldest = oldest;
+        this.births = births;
+        this.deaths = deaths;
+        this.stats = stats;
+        this.changes = changes;
+    }
+
+    /**
+     * @param previous the last snapshot, or null
+     * @param changed the cells changed since the last snapshot, or null if any may have
+     * @return the changes to remember in the next snapshot, newest first
+     */
+    static int[][] history(WorldSnapshot previous, int[] changed) {
+        if (changed == null || previous == null) {
+            return new int[0][];
+        }
+        int[][] history = new int[Math.min(History, previous.changes.length + 1)][];
+        history[0] = changed;
+        System.arraycopy(previous.changes, 0, history, 1, history.length - 1);
+        return history;
+    }
+
+    /**
+     * @return the number of the snapshot, which goes up by one with every snapshot published
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * The cells whose food or neds changed between an earlier snapshot and this one, numbered
+     * row by row, so that the cell at x, y is y * width + x. A cell may be listed more than once.
+     * Food growing back on a patch nobody is on is not a change: a reader that shows it has to keep
+     * track of the patches that aren't full itself.
+     *
+     * @param since the version of the earlier snapshot
+     * @return the changed cells, or null if the earlier snapshot is too old, or not an earlier one,
+     * in which case any cell may have changed
+     */
+    public int[] getChangedCells(long since) {
+        if (since > version || version - since > changes.length) {
+            return null;
+        }
+        int n = (int) (version - since);
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            length += changes[i].length;
+        }
+        int[] cells = new int[length];
+        int at = 0;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(changes[i], 0, cells, at, changes[i].length);
+            at += changes[i].length;
+        }
+        return cells;
+    }
+
+    /**
+     * @return the most food a patch can hold
+     */
+    public int getMaxFood() {
+        return field.getMax();
+    }
+
+    /**
+     * @return the number of live neds
+     */
+    public int getPopulation() {
+        return live;
+    }
+
+    /**
+     * Claims the snapshot for a reader, so that its population is never reused.
+     *
+     * @return false if it is too late, because the snapshot has been retired and its population
+     * may already hold a later step
+     */
+    boolean observe() {
+        return state.compareAndSet(Unobserved, Observed) || state.get() == Observed;
+    }
+
+    /**
+     * Retires the snapshot once a later one is published.
+     *
+     * @return whether nobody has claimed it, so that its population may be reused
+     */
+    boolean retire() {
+        return state.compareAndSet(Unobserved, Retired);
+    }
+
+    public int getBirths() {
+        return births;
+    }
+
+    public int getDeaths() {
+        return deaths;
+    }
+
+    public PopulationStats getStats() {
+        return stats;
+    }
+
+    Population population() {
+        return population;
+    }
+
+    FoodField.Chunk[] food() {
+        return food;
+    }
+
+    /**
+     * @return the lowest slot that may still be alive, or -1 if all have died
+     */
+    int oldest() {
+        return oldest;
+    }
+
+    /**
+     * @return the oldest living ned, or null if all have died
+     */
+    public Ned getOldestNed() {
+        return oldest < 0 ? null : population.view(oldest);
+    }
+
+    /**
+     * The oldest living neds, oldest first. Neds are kept in birth order, so this only walks past
+     * the neds that died since the population was last compacted.
+     *
+     * @param k
+     * @return at most k neds
+     */
+    public List<Ned> getOldestNeds(int k) {
+        List<Ned> neds = new ArrayList<>(k);
+        if (oldest >= 0) {
+            for (int slot = oldest; slot < population.size() && neds.size() < k; slot++) {
+                if (population.isAlive(slot)) {
+                    neds.add(population.view(slot));
+                }
+            }
+        }
+        return neds;
+    }
+
+    /**
+     * @return every live ned, oldest first
+     */
+    public List<Ned> getNeds() {
+        List<Ned> all = neds;
+        if (all == null) {
+            List<Ned> list = new ArrayList<>(population.live());
+            for (int slot = 0; slot < population.size(); slot++) {
+                if (population.isAlive(slot)) {
+                    list.add(population.view(slot));
+                }
+            }
+            all = Collections.unmodifiableList(list);
+            neds = all;
+        }
+        return all;
+    }
+
+    /**
+     * @param c
+     * @return the live neds on a patch, oldest first
+     */
+    public List<Ned> getNeds(Coordinate c) {
+        ByCell index = byCell();
+        int cell = cellOf(c);
+        List<Ned> list = new ArrayList<>();
+        for (int i = index.first(cell); i < index.cells.length && index.cells[i] == cell; i++) {
+            list.add(population.view(index.slots[i]));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    public int getNedCount(Coordinate c) {
+        return getNedCount(cellOf(c));
+    }
+
+    /**
+     * @param cell the cell at x, y being y * width + x
+     * @return the number of live neds in the cell
+     */
+    public int getNedCount(int cell) {
+        ByCell index = byCell();
+        return index.first(cell + 1) - index.first(cell);
+    }
+
+    /**
+     * The cell of every live ned, found in one pass over the population, which is much cheaper
+     * than sorting the neds by cell when the cells are only to be counted.
+     *
+     * @return the cells, oldest ned first, so that a cell holding several neds is there several
+     * times
+     */
+    public int[] getNedCells() {
+        int[] cells = new int[population.live()];
+        int width = field.getWidth();
+        int n = 0;
+        for (int slot = 0; slot < population.size(); slot++) {
+            if (population.isAlive(slot)) {
+                cells[n++] = population.getY(slot) * width + population.getX(slot);
+            }
+        }
+        return cells;
+    }
+
+    public int getMaleCount(Coordinate c) {
+        ByCell index = byCell();
+        int cell = cellOf(c);
+        int males = 0;
+        for (int i = index.first(cell); i < index.cells.length && index.cells[i] == cell; i++) {
+            if (population.isMale(index.slots[i])) {
+                males++;
+            }
+        }
+        return males;
+    }
+
+    public int getFemaleCount(Coordinate c) {
+        return getNedCount(c) - getMaleCount(c);
+    }
+
+    /**
+     * @param c
+     * @return the food left on the patch
+     */
+    public int getFood(Coordinate c) {
+        return getFood(cellOf(c));
+    }
+
+    /**
+     * @param cell the cell at x, y being y * width + x
+     * @return the food left in the cell
+     */
+    public int getFood(int cell) {
+        return field.getFood(food[cell >>> CellIndex.ChunkBits], cell, step);
+    }
+
+    /**
+     * @param c
+     * @return the food left on the patch, as a percentage of the most a patch can hold
+     */
+    public double getPercentRemainingFood(Coordinate c) {
+        return (getFood(c) / (double) field.getMax()) * 100.00;
+    }
+
+    private int cellOf(Coordinate c) {
+        return c.getY() * field.getWidth() + c.getX();
+    }
+
+    private ByCell byCell() {
+        ByCell index = byCell;
+        if (index == null) {
+            index = new ByCell(population, field.getWidth());
+            byCell = index;
+        }
+        return index;
+    }
+
+    /**
+     * The live slots sorted by the cell they are in.
+     */
+    private static final class ByCell {
+
+        final int[] cells;
+        final int[] slots;
+
+        ByCell(Population population, int width) {
+            long[] keys = new long[population.live()];
+            int n = 0;
+            for (int slot = 0; slot < population.size(); slot++) {
+                if (population.isAlive(slot)) {
+                    long cell = population.getY(slot) * width + population.getX(slot);
+                    keys[n++] = cell << 32 | slot;
+                }
+            }
+            Arrays.sort(keys, 0, n);
+            this.cells = new int[n];
+            this.slots = new int[n];
+            for (int i = 0; i < n; i++) {
+                cells[i] = (int) (keys[i] >>> 32);
+                slots[i] = (int) keys[i];
+            }
+        }
+
+        /**
+         * @return the index of the cell's first slot, or of where it would be
+         */
+        int first(int cell) {
+            int low = 0;
+            int high = cells.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cells[mid] < cell) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.tjc.neds.gui;
+
+import java.util.BitSet;
+import org.junit.Test;
+import org.tjc.neds.simulation.Dimensions;
+import org.tjc.neds.simulation.Neds;
+import org.tjc.neds.simulation.Range;
+import org.tjc.neds.simulation.WorldSnapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Keeps a pyramid up with a running world a changed block at a time, as the field does, and
+ * checks it against summing every level afresh.
+ *
+ * @author Thomas
+ */
+public class FieldPyramidTest {
+
+    private static final int Cols = 90;
+    private static final int Rows = 70;
+
+    @Test
+    public void updatingChangedBlocksSumsTheSameAsARebuild() {
+        Neds neds = new Neds(new Dimensions(Cols, Rows), 2500, new Range<>(0, 50), 0, 2, 23);
+        try {
+            WorldSnapshot world = neds.getSnapshot();
+            FieldPyramid kept = new FieldPyramid(Cols, Rows);
+            kept.rebuild(world);
+            check(kept, world);
+            for (int s = 0; s < 60; s++) {
+                long since = world.getVersion();
+                neds.step();
+                world = neds.getSnapshot();
+                BitSet blocks = new BitSet();
+                for (int cell : world.getChangedCells(since)) {
+                    blocks.set(kept.blockOf(1, cell));
+                }
+                for (int block = 0; block < kept.getWidth(1) * kept.getHeight(1); block++) {
+                    if (kept.getFood(world, 1, block) < kept.cells(1, block) *
+                        world.getMaxFood()) {
+                        blocks.set(block);
+                    }
+                }
+                kept.count(world);
+                for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+                    kept.update(world, b);
+                }
+                check(kept, world);
+            }
+            kept.count(world);
+            for (int block = 0; block < kept.getWidth(1) * kept.getHeight(1); block++) {
+                assertFalse("block " + block, kept.update(world, block));
+            }
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    @Test
+    public void theLevelsCoverTheFieldOnce() {
+        FieldPyramid pyramid = new FieldPyramid(Cols, Rows);
+        assertEquals(1, pyramid.getWidth(pyramid.top()));
+        assertEquals(1, pyramid.getHeight(pyramid.top()));
+        for (int level = 0; level <= pyramid.top(); level++) {
+            int cells = 0;
+            for (int block = 0; block < pyramid.getWidth(level) * pyramid.getHeight(level);
+                block++) {
+                cells += pyramid.cells(level, block);
+            }
+            assertEquals("level " + level, Cols * Rows, cells);
+        }
+    }
+
+    /**
+     * Compares every block of every level with a pyramid rebuilt from the snapshot and with the
+     * cells it holds summed one by one.
+     */
+    private static void check(FieldPyramid kept, WorldSnapshot world) {
+        FieldPyramid rebuilt = new FieldPyramid(Cols, Rows);
+        rebuilt.rebuild(world);
+        for (int level = 1; level <= kept.top(); level++) {
+            int blocks = kept.getWidth(level) * kept.getHeight(level);
+            long[] food = new long[blocks];
+            int[] neds = new int[blocks];
+            for (int cell = 0; cell < Cols * Rows; cell++) {
+                food[kept.blockOf(level, cell)] += world.getFood(cell);
+                neds[kept.blockOf(level, cell)] += world.getNedCount(cell);
+            }
+            for (int block = 0; block < blocks; block++) {
+                String at = "step " + world.getStep() + ", level " + level + ", block " + block;
+                assertEquals(at, food[block], kept.getFood(world, level, block));
+                assertEquals(at, rebuilt.getFood(world, level, block), kept.getFood(world, level,
+                    block));
+                assertEquals(at, neds[block], kept.getNeds(world, level, block));
+                assertEquals(at, rebuilt.getNeds(world, level, block), kept.getNeds(world, level,
+                    block));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.tjc.neds.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Files neds in and out of an index at random and checks it against recounting where every ned
+ * is.
+ *
+ * @author Thomas
+ */
+public class CellIndexTest {
+
+    private static final Dimensions Size = new Dimensions(300, 70);
+    private static final int Slots = 5000;
+
+    @Test
+    public void agreesWithARecountAfterAddsMovesAndRemoves() {
+        CounterRng random = new CounterRng(5);
+        CellIndex index = new CellIndex(Size, 16);
+        int cells = Size.getWidth() * Size.getHeight();
+        int[] where = new int[Slots];
+        Arrays.fill(where, -1);
+        for (int op = 0; op < 200000; op++) {
+            int slot = random.nextInt(op, 0, CounterRng.Purpose.X, Slots);
+            int cell = random.nextInt(op, 1, CounterRng.Purpose.Y, op < 100000 ? cells : 500);
+            if (where[slot] < 0) {
+                index.add(cell, slot);
+                where[slot] = cell;
+            }
+            else if (random.nextBoolean(op, 2, CounterRng.Purpose.Sex)) {
+                index.move(where[slot], cell, slot);
+                where[slot] = cell;
+            }
+            else {
+                index.remove(where[slot], slot);
+                where[slot] = -1;
+            }
+            if (op % 20000 == 0) {
+                check(index, where, random, op);
+            }
+        }
+        check(index, where, random, -1);
+    }
+
+    @Test
+    public void rebuildsFromAPopulation() {
+        CounterRng random = new CounterRng(6);
+        Population population = new Population(Slots, random);
+        CellIndex index = new CellIndex(Size, Slots);
+        int[] where = new int[Slots];
+        for (int i = 0; i < Slots; i++) {
+            int x = random.nextInt(0, i, CounterRng.Purpose.X, i % 3 == 0 ? 20 : Size.getWidth());
+            int y = random.nextInt(0, i, CounterRng.Purpose.Y, Size.getHeight());
+            int slot = population.add(i, i, 'm', 0, x, y);
+            index.add(index.cellOf(x, y), slot);
+            where[slot] = index.cellOf(x, y);
+        }
+        for (int slot = 0; slot < Slots; slot += 4) {
+            population.kill(slot);
+            where[slot] = -1;
+        }
+        index.rebuild(population);
+        check(index, where, random, 0);
+    }
+
+    /**
+     * Recounts every cell's neds from where they are and compares the index with it, both cell by
+     * cell and when walking the occupied cells over ranges of the field.
+     */
+    private static void check(CellIndex index, int[] where, CounterRng random, int op) {
+        int cells = Size.getWidth() * Size.getHeight();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int cell = 0; cell < cells; cell++) {
+            expected.add(new ArrayList<>());
+        }
+        for (int slot = 0; slot < where.length; slot++) {
+            if (where[slot] >= 0) {
+                expected.get(where[slot]).add(slot);
+            }
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            List<Integer> slots = new ArrayList<>();
+            for (int s = index.first(cell); s >= 0; s = index.next(s)) {
+                slots.add(s);
+            }
+            slots.sort(null);
+            String at = "after op " + op + ", cell " + cell;
+            assertEquals(at, expected.get(cell), slots);
+            assertEquals(at, slots.size(), index.count(cell));
+        }
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(op, i, CounterRng.Purpose.Splice, cells + 1);
+            int to = from + random.nextInt(op, i, CounterRng.Purpose.Strand, 9000);
+            to = Math.min(to, cells);
+            int first = -1;
+            for (int cell = from; cell < to && first < 0; cell++) {
+                if (!expected.get(cell).isEmpty()) {
+                    first = cell;
+                }
+            }
+            assertEquals("from " + from + " to " + to, first, index.nextOccupied(from, to));
+        }
+    }
+}
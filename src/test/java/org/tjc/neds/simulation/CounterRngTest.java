@@ -0,0 +1,59 @@
+package org.tjc.neds.simulation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Thomas
+ */
+public class CounterRngTest {
+
+    @Test
+    public void drawsDependOnlyOnTheirKey() {
+        CounterRng a = new CounterRng(7);
+        CounterRng b = new CounterRng(7);
+        long[] forwards = new long[1000];
+        for (int i = 0; i < forwards.length; i++) {
+            forwards[i] = a.nextLong(i / 10, i, CounterRng.Purpose.Dna);
+        }
+        for (int i = forwards.length - 1; i >= 0; i--) {
+            b.nextLong(i, i, CounterRng.Purpose.Food);
+            assertEquals(forwards[i], b.nextLong(i / 10, i, CounterRng.Purpose.Dna));
+        }
+    }
+
+    @Test
+    public void everyPartOfTheKeyChangesTheDraw() {
+        CounterRng random = new CounterRng(7);
+        long draw = random.nextLong(3, 5, CounterRng.Purpose.Sex);
+        assertNotEquals(draw, new CounterRng(8).nextLong(3, 5, CounterRng.Purpose.Sex));
+        assertNotEquals(draw, random.nextLong(4, 5, CounterRng.Purpose.Sex));
+        assertNotEquals(draw, random.nextLong(3, 6, CounterRng.Purpose.Sex));
+        assertNotEquals(draw, random.nextLong(3, 5, CounterRng.Purpose.Facing));
+        assertNotEquals(random.nextLong(3, 5, CounterRng.Purpose.Sex), random.nextLong(5, 3,
+            CounterRng.Purpose.Sex));
+    }
+
+    @Test
+    public void boundedDrawsStayInBoundsAndCoverThem() {
+        CounterRng random = new CounterRng(7);
+        int[] seen = new int[8];
+        for (int i = 0; i < 8000; i++) {
+            int n = random.nextInt(1, i, CounterRng.Purpose.Facing, seen.length);
+            assertTrue(n >= 0 && n < seen.length);
+            seen[n]++;
+        }
+        for (int count : seen) {
+            assertTrue("uneven draws: " + count, count > 800 && count < 1200);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyBound() {
+        new CounterRng(7).nextInt(1, 1, CounterRng.Purpose.X, 0);
+    }
+}
@@ -0,0 +1,115 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a journal over the neds a world started with and checks it ends where the world did.
+ *
+ * @author Thomas
+ */
+public class EventJournalTest {
+
+    private static final int Steps = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aJournalReplaysTheRunThatWroteIt() throws IOException {
+        Path file = folder.newFile("events.log").toPath();
+        Neds neds = new Neds(new Dimensions(80, 80), 3000, new Range<>(0, 50), 0, 2, 9);
+        Map<Long, String> where = locations(neds);
+        List<int[]> totals = new ArrayList<>();
+        try (EventJournal journal = new EventJournal(file)) {
+            neds.setJournal(journal);
+            for (int s = 0; s < Steps; s++) {
+                neds.step();
+                totals.add(new int[]{neds.getPopulation(), neds.getBirths(), neds.getDeaths()});
+            }
+            neds.setJournal(null);
+        }
+        finally {
+            neds.shutdown();
+        }
+
+        int step = 1;
+        int births = 0;
+        int deaths = 0;
+        try (JournalReader in = new JournalReader(file)) {
+            while (in.next()) {
+                assertEquals(step, in.getStep());
+                String at = "step " + step + ", ned " + in.getId();
+                switch (in.getType()) {
+                    case Birth:
+                        assertNull(at, where.put(in.getId(), in.getX() + "," + in.getY()));
+                        assertTrue(at, in.getMale() != in.getFemale());
+                        births++;
+                        break;
+                    case Death:
+                        assertEquals(at, in.getX() + "," + in.getY(), where.remove(in.getId()));
+                        assertNotNull(at, in.getCause());
+                        assertTrue(at, in.getAge() > 0);
+                        deaths++;
+                        break;
+                    case Move:
+                        assertEquals(at, in.getX() + "," + in.getY(), where.put(in.getId(),
+                            in.getToX() + "," + in.getToY()));
+                        assertEquals(at, 1, Math.max(Math.abs(in.getToX() - in.getX()),
+                            Math.abs(in.getToY() - in.getY())));
+                        break;
+                    case Step:
+                        int[] expected = totals.get(step - 1);
+                        assertEquals("step " + step, expected[0], in.getPopulation());
+                        assertEquals("step " + step, expected[1], in.getBirths());
+                        assertEquals("step " + step, expected[2], in.getDeaths());
+                        assertEquals("step " + step, expected[1], births);
+                        assertEquals("step " + step, expected[2], deaths);
+                        assertEquals("step " + step, expected[0], where.size());
+                        step++;
+                        break;
+                }
+            }
+        }
+        assertEquals(Steps + 1, step);
+        assertEquals(locations(neds), where);
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToReadSomethingElse() throws IOException {
+        Path file = folder.newFile("events.log").toPath();
+        Files.write(file, new byte[16]);
+        new JournalReader(file).close();
+    }
+
+    @Test
+    public void anEmptyJournalHasNoRecords() throws IOException {
+        Path file = folder.newFile("events.log").toPath();
+        new EventJournal(file).close();
+        try (JournalReader in = new JournalReader(file)) {
+            assertFalse(in.next());
+        }
+    }
+
+    private static Map<Long, String> locations(Neds neds) {
+        Map<Long, String> where = new HashMap<>();
+        for (Ned n : neds.getAllNeds()) {
+            where.put(n.getId(), n.getX() + "," + n.getY());
+        }
+        return where;
+    }
+}
@@ -0,0 +1,150 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks lazy regrowth against growing every patch at the end of every step, as the field used
+ * to.
+ *
+ * @author Thomas
+ */
+public class FoodFieldTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void growingForManyStepsIsGrowingOneStepAtATime() {
+        CounterRng random = new CounterRng(1);
+        for (int i = 0; i < 10000; i++) {
+            int max = random.nextInt(0, i, CounterRng.Purpose.Food, 200) + 1;
+            int food = random.nextInt(1, i, CounterRng.Purpose.Food, max + 1);
+            int rate = random.nextInt(2, i, CounterRng.Purpose.Food, 20);
+            int steps = random.nextInt(3, i, CounterRng.Purpose.Food, 50);
+            int eager = food;
+            for (int s = 0; s < steps; s++) {
+                eager = Math.min(max, eager + rate);
+            }
+            assertEquals(eager, FoodField.grow(food, rate, steps, max));
+        }
+    }
+
+    @Test
+    public void aFieldLeftAloneGrowsAsIfEveryPatchWereVisited() {
+        Neds neds = new Neds(new Dimensions(100, 100), 1500, new Range<>(0, 50), 0, 2, 3);
+        try {
+            Dimensions d = neds.getDimension();
+            int w = d.getWidth();
+            int[] eager = new int[w * d.getHeight()];
+            for (int cell = 0; cell < eager.length; cell++) {
+                eager[cell] = patch(neds, cell, w).getFood();
+            }
+            int untouched = 0;
+            for (int s = 1; s <= 80; s++) {
+                BitSet occupied = new BitSet(eager.length);
+                for (Ned n : neds.getAllNeds()) {
+                    occupied.set(n.getY() * w + n.getX());
+                }
+                neds.step();
+                for (int cell = 0; cell < eager.length; cell++) {
+                    Patch p = patch(neds, cell, w);
+                    if (occupied.get(cell)) {
+                        eager[cell] = p.getFood();
+                    }
+                    else {
+                        eager[cell] = Math.min(p.getMaxFood(), eager[cell] +
+                            p.getFoodGrowthRate());
+                        assertEquals("step " + s + ", cell " + cell, eager[cell], p.getFood());
+                        untouched++;
+                    }
+                }
+            }
+            assertTrue(untouched > eager.length * 10);
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    @Test
+    public void pagingChunksOutAndBackInChangesNoFood() throws IOException {
+        Dimensions d = new Dimensions(200, 200);
+        Range<Integer> range = new Range<>(0, 100);
+        CounterRng random = new CounterRng(4);
+        int chunks = FoodField.chunks(d);
+        int[] hot = new int[6];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = random.nextInt(0, i, CounterRng.Purpose.X, chunks);
+        }
+        int pagedOut = 0;
+        int pagedIn = 0;
+        try (FoodField paging = new FoodField(d, range, random);
+            FoodField resident = new FoodField(d, range, random)) {
+            for (int step = 1; step <= 600; step++) {
+                CellIndex neds = new CellIndex(d, 1);
+                int k = hot[random.nextInt(step / 25, 0, CounterRng.Purpose.Y, hot.length)];
+                int base = k << CellIndex.ChunkBits;
+                neds.add(base, 0);
+                for (int i = 0; i < 50; i++) {
+                    int cell = Math.min(d.getWidth() * d.getHeight() - 1, base + random.nextInt(
+                        step, i, CounterRng.Purpose.Splice, CellIndex.ChunkCells));
+                    if (paging.chunk(k) == FoodField.Paged) {
+                        pagedIn++;
+                    }
+                    assertEquals(resident.pick(cell, 7), paging.pick(cell, 7));
+                }
+                paging.regrow(step);
+                resident.regrow(step);
+                if (step % 5 == 0) {
+                    pagedOut += paging.pageOut(neds);
+                }
+                for (int cell = 0; cell < d.getWidth() * d.getHeight(); cell++) {
+                    assertEquals("step " + step + ", cell " + cell, resident.getFood(cell),
+                        paging.getFood(cell));
+                }
+            }
+            for (int cell = 0; cell < d.getWidth() * d.getHeight(); cell++) {
+                assertEquals("cell " + cell, resident.getRate(cell), paging.getRate(cell));
+            }
+        }
+        assertTrue("paged out " + pagedOut, pagedOut > 10);
+        assertTrue("paged in " + pagedIn, pagedIn > 10);
+    }
+
+    @Test
+    public void aSparseWorldPagesOutAndStepsOnAfterARestore() throws IOException {
+        Path file = folder.newFile("world.snap").toPath();
+        Neds neds = new Neds(new Dimensions(1000, 1000), 40, new Range<>(0, 100), 0, 2, 8);
+        Neds restored = null;
+        try {
+            for (int s = 0; s < 130; s++) {
+                neds.step();
+            }
+            neds.save(file);
+            restored = Neds.restore(file, 0, 1);
+            for (int s = 0; s < 20; s++) {
+                neds.step();
+                restored.step();
+            }
+            assertEquals(NedsTest.state(neds), NedsTest.state(restored));
+        }
+        finally {
+            neds.shutdown();
+            if (restored != null) {
+                restored.shutdown();
+            }
+        }
+    }
+
+    private static Patch patch(Neds neds, int cell, int width) {
+        return neds.getPatch(new Coordinate(cell % width, cell / width));
+    }
+}
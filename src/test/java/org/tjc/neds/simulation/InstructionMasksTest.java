@@ -0,0 +1,102 @@
+package org.tjc.neds.simulation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the word-at-a-time decode of {@link Population#execute} against decoding one ned at a
+ * time with a switch, as the step used to.
+ *
+ * @author Thomas
+ */
+public class InstructionMasksTest {
+
+    private static final int Slots = 1000;
+
+    @Test
+    public void decodesLikeASwitchOverEachNed() {
+        Population words = populate();
+        Population switched = populate();
+        InstructionMasks masks = new InstructionMasks();
+        masks.ensureCapacity(Slots);
+        for (int round = 0; round < 25; round++) {
+            words.execute(0, 640, masks);
+            words.execute(640, Slots, masks);
+            boolean[][] expected = decode(switched);
+            for (int slot = 0; slot < Slots; slot++) {
+                String at = "round " + round + ", slot " + slot;
+                assertEquals(at, expected[0][slot], bit(masks.turn, slot));
+                assertEquals(at, expected[1][slot], masks.isMove(slot));
+                assertEquals(at, expected[2][slot], masks.isMate(slot));
+                assertEquals(at, expected[3][slot], bit(masks.idle, slot));
+                assertEquals(at, switched.getIp(slot), words.getIp(slot));
+                assertEquals(at, switched.getCurr(slot), words.getCurr(slot));
+                assertEquals(at, switched.getFacing(slot), words.getFacing(slot));
+                assertEquals(at, switched.getAge(slot), words.getAge(slot));
+                if (switched.isAlive(slot)) {
+                    assertEquals(at, switched.getInstruction(slot), words.getInstruction(slot));
+                }
+            }
+        }
+        assertEquals(words.live(), InstructionMasks.count(masks.turn, Slots) +
+            InstructionMasks.count(masks.move, Slots) + InstructionMasks.count(masks.mate, Slots) +
+            InstructionMasks.count(masks.idle, Slots));
+    }
+
+    /**
+     * The same neds every time, partway through their programs, with every seventh one dead.
+     */
+    private static Population populate() {
+        CounterRng random = new CounterRng(3);
+        Population p = new Population(Slots, random);
+        for (int i = 0; i < Slots; i++) {
+            long dna = random.nextLong(0, i, CounterRng.Purpose.Dna);
+            int slot = p.add(dna, dna, random.nextBoolean(0, i, CounterRng.Purpose.Sex) ? 'm' :
+                'f', random.nextInt(0, i, CounterRng.Purpose.Facing, 8), 0, 0);
+            for (int n = random.nextInt(0, i, CounterRng.Purpose.X, 20); n > 0; n--) {
+                p.next(slot);
+            }
+            if (i % 7 == 0) {
+                p.kill(slot);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Runs every live ned's next instruction the way the step did before the masks.
+     *
+     * @return which slots turned, moved, mated and idled
+     */
+    private static boolean[][] decode(Population p) {
+        boolean[][] decoded = new boolean[4][Slots];
+        for (int slot = 0; slot < Slots; slot++) {
+            if (!p.isAlive(slot)) {
+                continue;
+            }
+            int instr = p.next(slot);
+            switch (instr) {
+                case 0:
+                    p.turnLeft(slot);
+                    decoded[0][slot] = true;
+                    break;
+                case 1:
+                    decoded[1][slot] = true;
+                    break;
+                case 2:
+                    decoded[2][slot] = true;
+                    break;
+                default:
+                    decoded[3][slot] = true;
+                    break;
+            }
+            p.setAge(slot, p.getAge(slot) + 1);
+        }
+        return decoded;
+    }
+
+    private static boolean bit(long[] mask, int slot) {
+        return (mask[slot >>> 6] & (1L << slot)) != 0;
+    }
+}
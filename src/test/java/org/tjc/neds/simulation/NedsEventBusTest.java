@@ -0,0 +1,174 @@
+package org.tjc.neds.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Holds a listener up on its first event, fills its ring past capacity, then lets it go and
+ * checks which events it was handed.
+ *
+ * @author Thomas
+ */
+public class NedsEventBusTest {
+
+    private static final int Capacity = 64;
+    private static final int Steps = Capacity + 6;
+
+    private Neds neds;
+    private NedsEventBus bus;
+    private Listener listener;
+    private NedsEvent started;
+    private NedsEvent stopped;
+    private List<NedsEvent> steps;
+
+    @Before
+    public void setUp() {
+        neds = new Neds(new Dimensions(10, 10), 10, new Range<>(0, 50), 0, 1, 5);
+        bus = new NedsEventBus();
+        listener = new Listener();
+        started = event(NedsEvent.Type.Started);
+        stopped = event(NedsEvent.Type.Stopped);
+        steps = new ArrayList<>();
+        for (int i = 0; i < Steps; i++) {
+            steps.add(event(NedsEvent.Type.Step));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        listener.release.countDown();
+        bus.close();
+        neds.shutdown();
+    }
+
+    @Test
+    public void coalesceHandsOverOnlyTheLatestStep() throws InterruptedException {
+        List<NedsEvent> handled = overfill(NedsEventListener.Delivery.Coalesce, 3);
+        assertSame(started, handled.get(0));
+        assertSame(steps.get(Steps - 1), handled.get(1));
+        assertSame(stopped, handled.get(2));
+        assertEquals(Steps - 1, bus.getDropped());
+    }
+
+    @Test
+    public void dropOldestMakesRoomByDroppingTheOldestSteps() throws InterruptedException {
+        List<NedsEvent> handled = overfill(NedsEventListener.Delivery.DropOldest, Capacity + 1);
+        assertSame(started, handled.get(0));
+        int first = Steps - Capacity + 1;
+        for (int i = first; i < Steps; i++) {
+            assertSame("step " + i, steps.get(i), handled.get(1 + i - first));
+        }
+        assertSame(stopped, handled.get(Capacity));
+        assertEquals(first, bus.getDropped());
+    }
+
+    @Test
+    public void dropNewestDropsTheStepsThatDoNotFit() throws InterruptedException {
+        List<NedsEvent> handled = overfill(NedsEventListener.Delivery.DropNewest, Capacity + 1);
+        assertSame(started, handled.get(0));
+        for (int i = 1; i < Capacity; i++) {
+            assertSame("step " + i, steps.get(i), handled.get(i));
+        }
+        assertSame(stopped, handled.get(Capacity));
+        assertEquals(Steps - Capacity + 1, bus.getDropped());
+    }
+
+    @Test
+    public void aStepNeverPushesOutAStartOrAStop() throws InterruptedException {
+        for (NedsEventListener.Delivery delivery : NedsEventListener.Delivery.values()) {
+            tearDown();
+            setUp();
+            bus.subscribe(listener, delivery);
+            bus.publish(started);
+            assertTrue(listener.busy.await(5, TimeUnit.SECONDS));
+            List<NedsEvent> lifecycle = new ArrayList<>();
+            for (int i = 0; i < Capacity; i++) {
+                lifecycle.add(i % 2 == 0 ? stopped : started);
+                bus.publish(lifecycle.get(i));
+            }
+            bus.publish(steps.get(0));
+            listener.release.countDown();
+            List<NedsEvent> handled = listener.take(Capacity + 1);
+            assertEquals(delivery.toString(), lifecycle, handled.subList(1, Capacity + 1));
+            assertEquals(delivery.toString(), 1, bus.getDropped());
+        }
+    }
+
+    /**
+     * Publishes a start, holds the listener up on it, publishes every step and a stop, then lets
+     * the listener go.
+     *
+     * @return the events the listener handled
+     */
+    private List<NedsEvent> overfill(NedsEventListener.Delivery delivery, int expected)
+        throws InterruptedException {
+        bus.subscribe(listener, delivery);
+        bus.publish(started);
+        assertTrue(listener.busy.await(5, TimeUnit.SECONDS));
+        for (NedsEvent step : steps) {
+            bus.publish(step);
+        }
+        bus.publish(stopped);
+        listener.release.countDown();
+        List<NedsEvent> handled = listener.take(expected);
+        assertNull(listener.handled.poll(100, TimeUnit.MILLISECONDS));
+        return handled;
+    }
+
+    private NedsEvent event(NedsEvent.Type type) {
+        return new NedsEvent(neds, type, neds.getSnapshot());
+    }
+
+    private static void assertSame(String message, NedsEvent expected, NedsEvent actual) {
+        org.junit.Assert.assertSame(message + ": expected " + expected + " but was " + actual,
+            expected, actual);
+    }
+
+    private static void assertSame(NedsEvent expected, NedsEvent actual) {
+        assertSame(expected.getType().toString(), expected, actual);
+    }
+
+    /**
+     * Records what it's handed, waiting on its first event until it's released.
+     */
+    private static final class Listener implements NedsEventListener {
+
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingQueue<NedsEvent> handled = new LinkedBlockingQueue<>();
+
+        @Override
+        public void handle(NedsEvent event) {
+            handled.add(event);
+            busy.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<NedsEvent> take(int n) throws InterruptedException {
+            List<NedsEvent> events = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                NedsEvent event = handled.poll(5, TimeUnit.SECONDS);
+                assertNotNull("only " + i + " of " + n + " events handled", event);
+                events.add(event);
+            }
+            return events;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Thomas
+ */
+public class NedsTest {
+
+    private static final Dimensions Size = new Dimensions(120, 120);
+    private static final Range<Integer> Food = new Range<>(0, 50);
+    private static final int StartingPopulation = 6000;
+    private static final int Steps = 120;
+    private static final long Seed = 42;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void stepsTheSameWorldWhateverTheParallelism() {
+        List<String> expected = run(1);
+        for (int threads = 2; threads <= 4; threads++) {
+            assertEquals("with " + threads + " threads", expected, run(threads));
+        }
+    }
+
+    @Test
+    public void aSeedAlwaysGivesTheSameWorld() {
+        Neds neds = new Neds(Size, StartingPopulation, Food, 0, 1, Seed);
+        try {
+            assertEquals(Seed, neds.getSeed());
+        }
+        finally {
+            neds.shutdown();
+        }
+        assertEquals(run(1, Seed), run(1, Seed));
+    }
+
+    @Test
+    public void anotherSeedGivesAnotherWorld() {
+        assertNotEquals(run(1, Seed), run(1, Seed + 1));
+    }
+
+    @Test
+    public void anInterruptedRunReturnsOnlyOnceItsLastStepIsDone() throws InterruptedException {
+        Neds neds = new Neds(Size, StartingPopulation, Food, 0, 2, Seed);
+        try {
+            boolean[] interrupted = new boolean[1];
+            Thread runner = new Thread(() -> {
+                neds.run();
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            });
+            runner.start();
+            while (neds.getStep() < 3) {
+                Thread.sleep(1);
+            }
+            runner.interrupt();
+            runner.join(60000);
+            int stopped = neds.getStep();
+            assertEquals(stopped, neds.getSnapshot().getStep());
+            Thread.sleep(50);
+            assertEquals(stopped, neds.getStep());
+            assertTrue(interrupted[0]);
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    @Test
+    public void aRestoredWorldIsTheWorldThatWasSaved() throws IOException {
+        Path file = folder.newFile("world.snap").toPath();
+        Neds neds = new Neds(Size, StartingPopulation, Food, 0, 2, Seed);
+        Neds restored = null;
+        try {
+            for (int s = 0; s < Steps; s++) {
+                neds.step();
+            }
+            neds.save(file);
+            restored = Neds.restore(file, 0, 3);
+            assertEquals(state(neds), state(restored));
+            assertEquals(neds.getSeed(), restored.getSeed());
+            assertEquals(neds.getStep(), restored.getStep());
+
+            Path again = folder.newFile("again.snap").toPath();
+            restored.save(again);
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(again));
+        }
+        finally {
+            neds.shutdown();
+            if (restored != null) {
+                restored.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void aResumedRunMatchesAStraightRun() throws IOException {
+        Path file = folder.newFile("world.snap").toPath();
+        Neds neds = new Neds(Size, StartingPopulation, Food, 0, 1, Seed);
+        try {
+            for (int s = 0; s < Steps / 2; s++) {
+                neds.step();
+            }
+            neds.save(file);
+        }
+        finally {
+            neds.shutdown();
+        }
+        Neds resumed = Neds.restore(file, 0, 2);
+        try {
+            for (int s = Steps / 2; s < Steps; s++) {
+                resumed.step();
+            }
+            assertEquals(run(1), state(resumed));
+        }
+        finally {
+            resumed.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToRestoreSomethingElse() throws IOException {
+        Path file = folder.newFile("world.snap").toPath();
+        Files.write(file, new byte[64]);
+        Neds.restore(file, 0, 1);
+    }
+
+    private static List<String> run(int threads) {
+        return run(threads, Seed);
+    }
+
+    private static List<String> run(int threads, long seed) {
+        Neds neds = new Neds(Size, StartingPopulation, Food, 0, threads, seed);
+        try {
+            for (int s = 0; s < Steps; s++) {
+                neds.step();
+            }
+            return state(neds);
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    /**
+     * @return every ned in order of id, the food in every cell and the totals, as lines that can
+     * be compared and that show where two worlds part
+     */
+    static List<String> state(Neds neds) {
+        List<String> lines = new ArrayList<>();
+        lines.add("births " + neds.getBirths() + ", deaths " + neds.getDeaths() + ", population " +
+            neds.getPopulation());
+        List<Ned> all = new ArrayList<>(neds.getAllNeds());
+        assertTrue("the world died out", !all.isEmpty());
+        all.sort(Comparator.comparingLong(Ned::getId));
+        for (Ned n : all) {
+            lines.add("ned " + n.getId() + " at " + n.getX() + "," + n.getY() + " " +
+                n.getFacing() + " " + n.getSex() + " age " + n.getAge() + " dna " + n.getDna() +
+                " ip " + n.getIp() + " sack " + n.getFoodSack());
+        }
+        Dimensions d = neds.getDimension();
+        StringBuilder food = new StringBuilder("food");
+        for (int y = 0; y < d.getHeight(); y++) {
+            for (int x = 0; x < d.getWidth(); x++) {
+                food.append(' ').append(neds.getPatch(new Coordinate(x, y)).getFood());
+            }
+        }
+        lines.add(food.toString());
+        return lines;
+    }
+}
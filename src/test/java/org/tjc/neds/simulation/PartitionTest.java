@@ -0,0 +1,171 @@
+package org.tjc.neds.simulation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the bands of a split world in this process, linked over the loopback interface as they
+ * would be across processes.
+ *
+ * @author Thomas
+ */
+public class PartitionTest {
+
+    private static final Dimensions Size = new Dimensions(120, 96);
+    private static final int StartingPopulation = 4000;
+    private static final int Steps = 60;
+    private static final long Seed = 13;
+
+    @Test
+    public void bandsHandNedsOverWithoutLosingAny() throws Exception {
+        for (int count = 2; count <= 3; count++) {
+            List<Band> bands = run(count);
+            int moved = 0;
+            for (int s = 0; s < Steps; s++) {
+                int population = 0;
+                int births = 0;
+                int deaths = 0;
+                for (Band b : bands) {
+                    assertEquals("band " + b.index + ", step " + (s + 1), b.population[s],
+                        b.live[s]);
+                    population += b.population[s];
+                    births += b.births[s];
+                    deaths += b.deaths[s];
+                }
+                assertEquals(count + " bands, step " + (s + 1), StartingPopulation + births -
+                    deaths, population);
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Band b : bands) {
+                for (Ned n : b.neds) {
+                    assertTrue("ned " + n.getId() + " is in two bands", ids.add(n.getId()));
+                    assertTrue("ned " + n.getId() + " is outside band " + b.index,
+                        n.getY() >= b.top && n.getY() < b.bottom);
+                }
+                moved += b.migrated;
+            }
+            assertTrue("no ned crossed a band edge", moved > 0);
+        }
+    }
+
+    @Test
+    public void aSplitWorldRunsTheSameEveryTime() throws Exception {
+        List<Band> first = run(3);
+        List<Band> second = run(3);
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals("band " + i, first.get(i).state, second.get(i).state);
+        }
+    }
+
+    /**
+     * Steps every band of a world on a thread of its own.
+     *
+     * @return the bands, from the top
+     */
+    private static List<Band> run(int count) throws Exception {
+        int port = freePorts(count);
+        ExecutorService threads = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Band>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(threads.submit(() -> new Band(index, count, port)));
+            }
+            List<Band> bands = new ArrayList<>();
+            for (Future<Band> f : futures) {
+                try {
+                    bands.add(f.get(60, TimeUnit.SECONDS));
+                }
+                catch (ExecutionException e) {
+                    throw (Exception) e.getCause();
+                }
+            }
+            return bands;
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a port such that it and the count - 1 after it are free; band 0 listens on none
+     */
+    private static int freePorts(int count) throws IOException {
+        while (true) {
+            int port;
+            try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                port = s.getLocalPort() - 1;
+            }
+            if (port + count > 65535) {
+                continue;
+            }
+            boolean free = true;
+            for (int i = 2; i < count && free; i++) {
+                try (ServerSocket s = new ServerSocket()) {
+                    s.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + i));
+                }
+                catch (IOException e) {
+                    free = false;
+                }
+            }
+            if (free) {
+                return port;
+            }
+        }
+    }
+
+    private static final class Band {
+
+        final int index;
+        final int top;
+        final int bottom;
+        final int[] population = new int[Steps];
+        final int[] births = new int[Steps];
+        final int[] deaths = new int[Steps];
+        final int[] live = new int[Steps];
+        final List<Ned> neds;
+        final List<String> state;
+        int migrated;
+
+        Band(int index, int count, int port) throws IOException {
+            this.index = index;
+            Partition partition = Partition.connect(Size, index, count, port);
+            this.top = partition.getTop();
+            this.bottom = partition.getBottom();
+            Neds world = new Neds(Size, StartingPopulation, new Range<>(0, 50), 1, Seed,
+                partition);
+            try {
+                for (int s = 0; s < Steps; s++) {
+                    int before = world.getPopulation() + world.getDeaths() - world.getBirths();
+                    world.step();
+                    population[s] = world.getPopulation();
+                    births[s] = world.getBirths();
+                    deaths[s] = world.getDeaths();
+                    live[s] = world.getStats().getLive();
+                    int after = world.getPopulation() + world.getDeaths() - world.getBirths();
+                    migrated += Math.abs(after - before);
+                }
+                this.neds = new ArrayList<>(world.getAllNeds());
+                this.state = NedsTest.state(world);
+            }
+            finally {
+                world.shutdown();
+            }
+        }
+    }
+}
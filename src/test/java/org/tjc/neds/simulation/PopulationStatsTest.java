@@ -0,0 +1,68 @@
+package org.tjc.neds.simulation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Thomas
+ */
+public class PopulationStatsTest {
+
+    @Test
+    public void runningStatisticsMatchACountOfThePopulation() {
+        Neds neds = new Neds(new Dimensions(100, 100), 4000, new Range<>(0, 50), 0, 2, 11);
+        try {
+            check(neds);
+            for (int s = 1; s <= 150; s++) {
+                neds.step();
+                if (s % 10 == 0) {
+                    check(neds);
+                }
+            }
+        }
+        finally {
+            neds.shutdown();
+        }
+    }
+
+    private static void check(Neds world) {
+        PopulationStats stats = world.getStats();
+        List<Ned> neds = new ArrayList<>(world.getAllNeds());
+        int males = 0;
+        long food = 0;
+        int maxAge = -1;
+        Set<Long> genomes = new HashSet<>();
+        for (Ned n : neds) {
+            if (n.isMale()) {
+                males++;
+            }
+            food += n.getFoodSack();
+            maxAge = Math.max(maxAge, n.getAge());
+            genomes.add(n.getDna());
+        }
+        int[] ages = new int[maxAge + 1];
+        for (Ned n : neds) {
+            ages[n.getAge()]++;
+        }
+        String at = "at step " + world.getStep();
+        assertEquals(at, neds.size(), stats.getLive());
+        assertEquals(at, world.getPopulation(), stats.getLive());
+        assertEquals(at, males, stats.getMales());
+        assertEquals(at, neds.size() - males, stats.getFemales());
+        assertEquals(at, maxAge, stats.getMaxAge());
+        assertArrayEquals(at, ages, stats.getAgeHistogram());
+        assertEquals(at, genomes.size(), stats.getDistinctGenomes());
+        assertEquals(at, neds.isEmpty() ? 0.0 : (double) food / ((long) neds.size() *
+            Population.FoodSackCapacity), stats.getMeanFoodSackFill(), 1e-12);
+        if (!neds.isEmpty()) {
+            assertEquals(at, maxAge, world.getOldestNed().getAge());
+        }
+    }
+}
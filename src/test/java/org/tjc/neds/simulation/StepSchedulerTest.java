@@ -0,0 +1,128 @@
+package org.tjc.neds.simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pauses and resumes a world on a scheduler and checks when it steps.
+ *
+ * @author Thomas
+ */
+public class StepSchedulerTest {
+
+    private Neds neds;
+    private StepScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        neds = new Neds(new Dimensions(100, 100), 4000, new Range<>(0, 50), 0, 2, 17);
+        scheduler = new StepScheduler(StepScheduler.MaxSpeed);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitStopped();
+        neds.shutdown();
+    }
+
+    @Test
+    public void aPausedWorldStaysWhereItStoppedUntilResumed() throws InterruptedException {
+        for (int spell = 1; spell <= 3; spell++) {
+            int from = neds.getStep();
+            scheduler.resume(neds);
+            assertTrue(scheduler.isRunning());
+            awaitStep(from + 5);
+            scheduler.pause();
+            assertFalse(scheduler.isRunning());
+            scheduler.awaitStopped();
+            int stopped = neds.getStep();
+            Thread.sleep(50);
+            assertEquals("spell " + spell, stopped, neds.getStep());
+        }
+    }
+
+    @Test
+    public void awaitStoppedReturnsAtOnceWhenNothingRuns() throws InterruptedException {
+        scheduler.awaitStopped();
+        scheduler.pause();
+        scheduler.awaitStopped();
+        assertEquals(0, neds.getStep());
+    }
+
+    @Test
+    public void resumingTheRunningWorldAgainDoesNothing() throws InterruptedException {
+        scheduler.resume(neds);
+        scheduler.resume(neds);
+        awaitStep(3);
+        scheduler.pause();
+        scheduler.awaitStopped();
+        assertFalse(scheduler.isRunning());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesASecondWorldWhileOneRuns() {
+        Neds other = new Neds(new Dimensions(50, 50), 100, new Range<>(0, 50), 0, 1, 18);
+        try {
+            scheduler.resume(neds);
+            scheduler.resume(other);
+        }
+        finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void awaitingOneWorldDoesNotWaitForTheNext() throws InterruptedException {
+        Neds next = new Neds(new Dimensions(50, 50), 1000, new Range<>(0, 50), 0, 1, 19);
+        try {
+            scheduler.resume(neds);
+            awaitStep(2);
+            scheduler.pause();
+            scheduler.resume(next);
+            scheduler.awaitStopped(neds);
+            int stopped = neds.getStep();
+            assertTrue(scheduler.isRunning());
+            Thread.sleep(50);
+            assertEquals(stopped, neds.getStep());
+        }
+        finally {
+            scheduler.pause();
+            scheduler.awaitStopped();
+            next.shutdown();
+        }
+    }
+
+    @Test
+    public void stepsNoFasterThanTheRate() throws InterruptedException {
+        scheduler.setStepsPerSecond(20);
+        long start = System.nanoTime();
+        scheduler.resume(neds);
+        Thread.sleep(500);
+        scheduler.pause();
+        scheduler.awaitStopped();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(neds.getStep() + " steps in " + elapsed + "ms", neds.getStep() <= elapsed /
+            50 + 2);
+        assertTrue(neds.getStep() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesARateThatIsNotPositive() {
+        scheduler.setStepsPerSecond(0);
+    }
+
+    private void awaitStep(int step) throws InterruptedException {
+        long give = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (neds.getStep() < step) {
+            assertTrue("never reached step " + step, System.nanoTime() < give);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.tjc.neds.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads snapshots while another thread steps the world.
+ *
+ * @author Thomas
+ */
+public class WorldSnapshotTest {
+
+    private static final int Steps = 40;
+
+    private Neds neds;
+    private ExecutorService stepper;
+
+    @Before
+    public void setUp() {
+        neds = new Neds(new Dimensions(100, 100), 4000, new Range<>(0, 50), 0, 2, 21);
+        stepper = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        stepper.shutdownNow();
+        neds.shutdown();
+    }
+
+    @Test
+    public void aSnapshotNeverChangesWhileTheWorldStepsOn() throws Exception {
+        WorldSnapshot world = neds.getSnapshot();
+        List<String> taken = describe(world);
+        Future<?> stepping = stepper.submit(this::step);
+        while (!stepping.isDone()) {
+            assertEquals(taken, describe(world));
+        }
+        finish(stepping);
+        assertEquals(taken, describe(world));
+        assertEquals(Steps, neds.getSnapshot().getStep());
+        assertNotEquals(taken, describe(neds.getSnapshot()));
+    }
+
+    @Test
+    public void everySnapshotIsAWholeStep() throws Exception {
+        Future<?> stepping = stepper.submit(this::step);
+        int reads = 0;
+        long version = -1;
+        while (!stepping.isDone() || reads == 0) {
+            WorldSnapshot world = neds.getSnapshot();
+            assertTrue(world.getVersion() >= version);
+            version = world.getVersion();
+            String at = "step " + world.getStep();
+            List<Ned> all = world.getNeds();
+            assertEquals(at, world.getPopulation(), all.size());
+            assertEquals(at, world.getPopulation(), world.getStats().getLive());
+            int here = 0;
+            for (Ned n : all) {
+                assertTrue(at, n.isAlive());
+                if (n.getX() == all.get(0).getX() && n.getY() == all.get(0).getY()) {
+                    here++;
+                }
+            }
+            assertEquals(at, here, world.getNedCount(all.get(0).getCoord()));
+            reads++;
+        }
+        finish(stepping);
+    }
+
+    private void step() {
+        for (int s = 0; s < Steps; s++) {
+            neds.step();
+        }
+    }
+
+    private static void finish(Future<?> stepping) throws Exception {
+        try {
+            stepping.get(60, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * @return everything a reader can see of a snapshot, one line per ned or row of food
+     */
+    private static List<String> describe(WorldSnapshot world) {
+        List<String> lines = new ArrayList<>();
+        lines.add("step " + world.getStep() + ", births " + world.getBirths() + ", deaths " +
+            world.getDeaths() + ", population " + world.getPopulation() + ", oldest " +
+            world.getOldestNed());
+        for (Ned n : world.getNeds()) {
+            lines.add("ned " + n.getId() + " at " + n.getX() + "," + n.getY() + " " +
+                n.getFacing() + " age " + n.getAge() + " ip " + n.getIp() + " sack " +
+                n.getFoodSack());
+        }
+        for (int y = 0; y < 100; y++) {
+            StringBuilder row = new StringBuilder("food");
+            for (int x = 0; x < 100; x++) {
+                row.append(' ').append(world.getFood(new Coordinate(x, y)));
+            }
+            lines.add(row.toString());
+        }
+        return lines;
+    }
+}